@@ -0,0 +1,340 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic bibliographic records for the benchmarks, generated directly in the byte
+ * encoding of one of the character sets of this package.
+ *
+ * Records follow the ISO 2709 layout: a leader, fields terminated by {@code 0x1E},
+ * subfields introduced by {@code 0x1F}, and a record terminator {@code 0x1D}. The text
+ * is made of title words. A configurable share of letters carries a diacritic, in the
+ * form the character set uses: combining bytes before the base letter for ANSEL,
+ * ISO 5426 and Pica, tonos for ISO 5428, precomposed letters for MAB-Diskette.
+ * For ANSEL, words may also switch to Cyrillic or Greek, or to EACC (CJK) runs,
+ * by escape sequences.
+ */
+final class BibliographicCorpus {
+
+    static final byte RECORD_TERMINATOR = 0x1d;
+
+    static final byte FIELD_TERMINATOR = 0x1e;
+
+    static final byte SUBFIELD_DELIMITER = 0x1f;
+
+    private static final byte ESC = 0x1b;
+
+    private static final String LEADER = "00000nam a2200000 c 4500";
+
+    private static final String[] WORDS = {
+            "geschichte", "der", "deutschen", "literatur", "von", "den", "anfangen", "bis", "zur", "gegenwart",
+            "handbuch", "bibliothek", "katalog", "sammlung", "beitrage", "kunst", "musik", "philosophie",
+            "the", "history", "of", "printing", "in", "europe", "an", "introduction", "to", "library", "science",
+            "histoire", "de", "la", "litterature", "francaise", "et", "les", "revolution", "etudes", "oeuvres",
+            "studia", "universitatis", "opera", "omnia", "vol", "ed", "hrsg", "berlin", "koln", "munchen", "zurich"
+    };
+
+    private static final String GREEK_TRANSLITERATION = "abgdezhiklmnxoprstufcyw";
+
+    private static final int[] GREEK_SMALL_LETTERS = {
+            0xE1, 0xE2, 0xE4, 0xE5, 0xE6, 0xE9, 0xEA, 0xEC, 0xED, 0xEE, 0xEF, 0xF0,
+            0xF1, 0xF2, 0xF3, 0xF5, 0xF6, 0xF8, 0xF9, 0xFA, 0xFB, 0xFC, 0xFD
+    };
+
+    private BibliographicCorpus() {
+    }
+
+    /**
+     * Generate records until at least {@code size} bytes are written.
+     *
+     * @param charset the character set of the records
+     * @param size the minimum corpus size in bytes
+     * @param diacriticDensity the share of letters with a diacritic, between 0 and 1
+     * @param escapeFrequency the share of words switched to another script by escape sequences (ANSEL only)
+     * @param cjkShare the share of words replaced by an EACC run (ANSEL only)
+     * @param seed the random seed
+     * @return the encoded records
+     */
+    static byte[] generate(Charset charset, int size, double diacriticDensity, double escapeFrequency,
+                           double cjkShare, long seed) {
+        Profile profile = Profile.of(charset);
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 4096);
+        while (out.size() < size) {
+            writeAscii(out, LEADER);
+            int fields = 8 + random.nextInt(13);
+            for (int i = 0; i < fields; i++) {
+                writeAscii(out, random.nextBoolean() ? "  " : "1 ");
+                int subfields = 1 + random.nextInt(3);
+                for (int j = 0; j < subfields; j++) {
+                    out.write(SUBFIELD_DELIMITER);
+                    out.write('a' + j);
+                    int words = 2 + random.nextInt(7);
+                    for (int k = 0; k < words; k++) {
+                        if (k > 0) {
+                            out.write(' ');
+                        }
+                        double r = random.nextDouble();
+                        if (profile == Profile.ANSEL && r < cjkShare) {
+                            writeEscaped(out, "$1", Tables.eacc, 1 + random.nextInt(4), random);
+                        } else if (profile == Profile.ANSEL && r < cjkShare + escapeFrequency) {
+                            if (random.nextBoolean()) {
+                                writeEscaped(out, "(N", Tables.cyrillic, 3 + random.nextInt(7), random);
+                            } else {
+                                writeEscaped(out, "(S", Tables.greek, 3 + random.nextInt(7), random);
+                            }
+                        } else {
+                            String word = WORDS[random.nextInt(WORDS.length)];
+                            for (int l = 0; l < word.length(); l++) {
+                                char ch = k == 0 && l == 0 ? Character.toUpperCase(word.charAt(l)) : word.charAt(l);
+                                profile.writeLetter(out, ch, random.nextDouble() < diacriticDensity, random);
+                            }
+                        }
+                    }
+                }
+                out.write(FIELD_TERMINATOR);
+            }
+            out.write(RECORD_TERMINATOR);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Split a corpus into windows of at most {@code bufferSize} bytes that end on record
+     * terminators. A record longer than the buffer size gets a window of its own.
+     *
+     * @param corpus the corpus
+     * @param bufferSize the maximum window size
+     * @return the window boundaries, starting with 0 and ending with the corpus length
+     */
+    static int[] windows(byte[] corpus, int bufferSize) {
+        List<Integer> list = new ArrayList<>();
+        list.add(0);
+        int start = 0;
+        while (start < corpus.length) {
+            int end = Math.min(start + bufferSize, corpus.length);
+            int i = end - 1;
+            while (i >= start && corpus[i] != RECORD_TERMINATOR) {
+                i--;
+            }
+            if (i >= start) {
+                end = i + 1;
+            } else {
+                while (end < corpus.length && corpus[end - 1] != RECORD_TERMINATOR) {
+                    end++;
+                }
+            }
+            list.add(end);
+            start = end;
+        }
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Split decoded records into windows of at most {@code bufferSize} chars that end on
+     * record terminators.
+     *
+     * @param corpus the decoded corpus
+     * @param bufferSize the maximum window size
+     * @return the window boundaries, starting with 0 and ending with the corpus length
+     */
+    static int[] windows(CharSequence corpus, int bufferSize) {
+        byte[] terminators = new byte[corpus.length()];
+        for (int i = 0; i < terminators.length; i++) {
+            terminators[i] = corpus.charAt(i) == RECORD_TERMINATOR ? RECORD_TERMINATOR : 0;
+        }
+        return windows(terminators, bufferSize);
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    private static void writeEscaped(ByteArrayOutputStream out, String designation, byte[][] codes, int length,
+                                     Random random) {
+        out.write(ESC);
+        writeAscii(out, designation);
+        for (int i = 0; i < length; i++) {
+            out.writeBytes(codes[random.nextInt(codes.length)]);
+        }
+        out.write(ESC);
+        writeAscii(out, "(B");
+    }
+
+    private static boolean isVowel(char ch) {
+        return "aeiouAEIOU".indexOf(ch) >= 0;
+    }
+
+    private enum Profile {
+
+        ANSEL(new int[]{0xE1, 0xE2, 0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF0, 0xF2},
+                new int[]{0xA1, 0xA2, 0xA5, 0xB1, 0xB2, 0xB5, 0xB8, 0xC7}),
+
+        ISO5426(new int[]{0xC1, 0xC2, 0xC3, 0xC4, 0xC5, 0xC6, 0xC7, 0xC8, 0xC9, 0xCA, 0xCF, 0xD0, 0xD6},
+                new int[]{0xE1, 0xE2, 0xE8, 0xE9, 0xF1, 0xF2, 0xF5, 0xF8, 0xF9, 0xFB}),
+
+        PICA(new int[]{0xE1, 0xE2, 0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF0, 0xF2},
+                new int[]{0xA1, 0xA2, 0xA3, 0xA5, 0xB1, 0xB2, 0xB3, 0xB5, 0xBE, 0xD1, 0xD2, 0xD3}),
+
+        ISO5428(new int[]{0xA2}, new int[0]) {
+            @Override
+            void writeLetter(ByteArrayOutputStream out, char letter, boolean diacritic, Random random) {
+                int i = GREEK_TRANSLITERATION.indexOf(Character.toLowerCase(letter));
+                if (i < 0) {
+                    out.write(letter);
+                    return;
+                }
+                if (diacritic && isVowel(letter)) {
+                    out.write(0xA2);
+                }
+                int b = GREEK_SMALL_LETTERS[i];
+                out.write(Character.isUpperCase(letter) ? b - 0x20 : b);
+            }
+        },
+
+        MAB_DISKETTE(new int[0], new int[]{0x81, 0x82, 0x84, 0x85, 0x87, 0x8A, 0x8E, 0x94, 0x99, 0x9A, 0xA4, 0xE1});
+
+        private final int[] combining;
+
+        private final int[] special;
+
+        Profile(int[] combining, int[] special) {
+            this.combining = combining;
+            this.special = special;
+        }
+
+        static Profile of(Charset charset) {
+            if (charset instanceof AnselCharset || charset instanceof SimpleAnselCharset) {
+                return ANSEL;
+            }
+            if (charset instanceof ISO5426) {
+                return ISO5426;
+            }
+            if (charset instanceof Pica || charset instanceof PicaCharset) {
+                return PICA;
+            }
+            if (charset instanceof ISO5428) {
+                return ISO5428;
+            }
+            if (charset instanceof MabDisketteCharset) {
+                return MAB_DISKETTE;
+            }
+            throw new IllegalArgumentException("no corpus profile for " + charset);
+        }
+
+        void writeLetter(ByteArrayOutputStream out, char letter, boolean diacritic, Random random) {
+            if (diacritic && isVowel(letter) && combining.length > 0) {
+                out.write(combining[random.nextInt(combining.length)]);
+                out.write(letter);
+            } else if (diacritic && special.length > 0) {
+                out.write(special[random.nextInt(special.length)]);
+            } else {
+                out.write(letter);
+            }
+        }
+    }
+
+    /**
+     * MARC-8 codes of the alternate graphic sets, taken from the code tables.
+     */
+    private static final class Tables {
+
+        static final byte[][] cyrillic;
+
+        static final byte[][] greek;
+
+        static final byte[][] eacc;
+
+        static {
+            byte[][] c = null;
+            byte[][] g = null;
+            byte[][] e = null;
+            try (InputStream inputStream = AnselCharset.class.getResourceAsStream("codetables.xml")) {
+                AnselCodeTableParser parser = new AnselCodeTableParser(inputStream);
+                for (AnselCodeTableParser.CodeTable codeTable : parser.getCodeTables()) {
+                    for (AnselCodeTableParser.CharacterSet characterSet : codeTable.getCharacterSets()) {
+                        switch (characterSet.getName()) {
+                            case "Basic Cyrillic":
+                                c = letters(characterSet);
+                                break;
+                            case "Basic Greek":
+                                g = letters(characterSet);
+                                break;
+                            case "Chinese, Japanese, Korean (EACC)":
+                                e = letters(characterSet);
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            cyrillic = c;
+            greek = g;
+            eacc = e;
+        }
+
+        private Tables() {
+        }
+
+        private static byte[][] letters(AnselCodeTableParser.CharacterSet characterSet) {
+            List<byte[]> list = new ArrayList<>();
+            for (AnselCodeTableParser.Code code : characterSet.getMarc().values()) {
+                String marc = code.getMarc();
+                if (marc.charAt(0) >= 0x21 && marc.charAt(0) <= 0x7e
+                        && Character.isLetter(code.getUcs()) && !code.isCombining()) {
+                    byte[] b = new byte[marc.length()];
+                    for (int i = 0; i < b.length; i++) {
+                        b[i] = (byte) marc.charAt(i);
+                    }
+                    list.add(b);
+                }
+            }
+            list.sort(Arrays::compare);
+            return list.toArray(new byte[0][]);
+        }
+    }
+}
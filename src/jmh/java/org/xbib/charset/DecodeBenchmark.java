@@ -0,0 +1,140 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoder throughput. One operation decodes the whole corpus, window by window,
+ * with a reset decoder for each window.
+ *
+ * Run with the GC profiler ({@code gradle jmh} does this) to see the allocation rate,
+ * the {@code bytes} counter gives the decoded bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"ANSEL", "SIMPLE_ANSEL", "ISO-5426", "ISO-5428", "PICA", "x-PICA", "MAB-Diskette"})
+    public String charset;
+
+    @Param({"0.1"})
+    public double diacriticDensity;
+
+    @Param({"0.02"})
+    public double escapeFrequency;
+
+    @Param({"0.0"})
+    public double cjkShare;
+
+    @Param({"heap", "direct"})
+    public String buffers;
+
+    @Param({"256", "65536"})
+    public int bufferSize;
+
+    @Param({"1048576"})
+    public int corpusSize;
+
+    private CharsetDecoder decoder;
+
+    private ByteBuffer input;
+
+    private CharBuffer output;
+
+    private int[] windows;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Charset cs = Charset.forName(charset);
+        byte[] corpus = BibliographicCorpus.generate(cs, corpusSize, diacriticDensity, escapeFrequency,
+                cjkShare, 42L);
+        windows = BibliographicCorpus.windows(corpus, bufferSize);
+        int max = 0;
+        for (int i = 1; i < windows.length; i++) {
+            max = Math.max(max, windows[i] - windows[i - 1]);
+        }
+        decoder = cs.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        int outputSize = (int) (max * decoder.maxCharsPerByte()) + 16;
+        if ("direct".equals(buffers)) {
+            input = ByteBuffer.allocateDirect(corpus.length);
+            input.put(corpus).flip();
+            output = ByteBuffer.allocateDirect(outputSize * 2).asCharBuffer();
+        } else {
+            input = ByteBuffer.wrap(corpus);
+            output = CharBuffer.allocate(outputSize);
+        }
+    }
+
+    @Benchmark
+    public int decode(CodecThroughput throughput) {
+        int chars = 0;
+        for (int i = 1; i < windows.length; i++) {
+            input.limit(windows[i]).position(windows[i - 1]);
+            output.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(input, output, true);
+            if (result.isOverflow()) {
+                throw new IllegalStateException("output buffer too small");
+            }
+            decoder.flush(output);
+            chars += output.position();
+        }
+        throughput.bytes += input.capacity();
+        throughput.chars += chars;
+        return chars;
+    }
+}
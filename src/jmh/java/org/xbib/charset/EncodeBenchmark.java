@@ -0,0 +1,147 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoder throughput. The input is the decoded corpus, so it contains exactly the
+ * characters the charset can represent. One operation encodes the whole corpus,
+ * window by window, with a reset encoder for each window.
+ *
+ * ISO-5428 has no encoder and is not part of the charset parameter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"ANSEL", "SIMPLE_ANSEL", "ISO-5426", "PICA", "x-PICA", "MAB-Diskette"})
+    public String charset;
+
+    @Param({"0.1"})
+    public double diacriticDensity;
+
+    @Param({"0.02"})
+    public double escapeFrequency;
+
+    @Param({"0.0"})
+    public double cjkShare;
+
+    @Param({"heap", "direct"})
+    public String buffers;
+
+    @Param({"256", "65536"})
+    public int bufferSize;
+
+    @Param({"1048576"})
+    public int corpusSize;
+
+    private CharsetEncoder encoder;
+
+    private CharBuffer input;
+
+    private ByteBuffer output;
+
+    private int[] windows;
+
+    @Setup(Level.Trial)
+    public void setup() throws CharacterCodingException {
+        Charset cs = Charset.forName(charset);
+        byte[] corpus = BibliographicCorpus.generate(cs, corpusSize, diacriticDensity, escapeFrequency,
+                cjkShare, 42L);
+        CharBuffer chars = cs.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(corpus));
+        windows = BibliographicCorpus.windows(chars, bufferSize);
+        int max = 0;
+        for (int i = 1; i < windows.length; i++) {
+            max = Math.max(max, windows[i] - windows[i - 1]);
+        }
+        encoder = cs.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // precomposed characters may expand to several bytes, ANSEL adds escape sequences
+        int outputSize = max * (int) Math.ceil(encoder.maxBytesPerChar()) + 16;
+        if ("direct".equals(buffers)) {
+            input = ByteBuffer.allocateDirect(chars.remaining() * 2).asCharBuffer();
+            input.put(chars).flip();
+            output = ByteBuffer.allocateDirect(outputSize);
+        } else {
+            input = CharBuffer.allocate(chars.remaining());
+            input.put(chars).flip();
+            output = ByteBuffer.allocate(outputSize);
+        }
+    }
+
+    @Benchmark
+    public int encode(CodecThroughput throughput) {
+        int count = 0;
+        for (int i = 1; i < windows.length; i++) {
+            input.limit(windows[i]).position(windows[i - 1]);
+            output.clear();
+            encoder.reset();
+            CoderResult result = encoder.encode(input, output, true);
+            if (result.isOverflow()) {
+                throw new IllegalStateException("output buffer too small");
+            }
+            encoder.flush(output);
+            count += output.position();
+        }
+        throughput.bytes += count;
+        throughput.chars += input.capacity();
+        return count;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transcoding a file to UTF-8. {@code readerWriter} copies through an {@link InputStreamReader}
+ * and an {@link OutputStreamWriter}, {@code stream} and {@code path} use
+ * {@link BibliographicTranscoder} on streams and on memory-mapped files.
+ *
+ * The {@code bytes} counter gives the input bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileTranscodeBenchmark {
+
+    @Param({"ANSEL", "ISO-5426"})
+    public String charset;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"262144", "4194304"})
+    public int chunkSize;
+
+    @Param({"67108864"})
+    public int fileSize;
+
+    private Charset cs;
+
+    private Path dir;
+
+    private Path in;
+
+    private Path out;
+
+    private long size;
+
+    private BibliographicTranscoder transcoder;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cs = Charset.forName(charset);
+        dir = Files.createTempDirectory("transcode");
+        in = dir.resolve("in");
+        out = dir.resolve("out");
+        Files.write(in, BibliographicCorpus.generate(cs, fileSize, 0.1, 0.02, 0.0, 42L));
+        size = Files.size(in);
+        transcoder = new BibliographicTranscoder(chunkSize, parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(in);
+        Files.deleteIfExists(out);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public long readerWriter(CodecThroughput throughput) throws IOException {
+        long n = 0L;
+        try (Reader reader = new InputStreamReader(Files.newInputStream(in), cs);
+             Writer writer = new OutputStreamWriter(Files.newOutputStream(out), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int len;
+            while ((len = reader.read(buffer)) >= 0) {
+                writer.write(buffer, 0, len);
+                n += len;
+            }
+        }
+        throughput.bytes += size;
+        return n;
+    }
+
+    @Benchmark
+    public long stream(CodecThroughput throughput) throws IOException {
+        try (InputStream input = Files.newInputStream(in);
+             OutputStream output = Files.newOutputStream(out)) {
+            throughput.bytes += size;
+            return transcoder.transcode(input, cs, output, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public long path(CodecThroughput throughput) throws IOException {
+        throughput.bytes += size;
+        return transcoder.transcode(in, cs, out, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a stream of buffers with a {@link DecodingProcessor}, compared with one decoder
+ * which is called for each buffer directly. One operation decodes the whole corpus, in chunks
+ * which do not respect character boundaries.
+ *
+ * Both decode the chunks in place into an output buffer of the same size, so with the GC profiler
+ * the allocation per operation should differ only by the processor and its decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlowBenchmark {
+
+    @Param({"ANSEL", "ISO-5426", "x-PICA"})
+    public String charset;
+
+    @Param({"0.1"})
+    public double diacriticDensity;
+
+    @Param({"0.02"})
+    public double escapeFrequency;
+
+    @Param({"256", "65536"})
+    public int chunkSize;
+
+    @Param({"1048576"})
+    public int corpusSize;
+
+    private Charset cs;
+
+    private CharsetDecoder decoder;
+
+    private ByteBuffer[] chunks;
+
+    private CharBuffer output;
+
+    private ByteBuffer carry;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cs = Charset.forName(charset);
+        byte[] corpus = BibliographicCorpus.generate(cs, corpusSize, diacriticDensity, escapeFrequency,
+                0.0, 42L);
+        chunks = new ByteBuffer[(corpus.length + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            int off = i * chunkSize;
+            chunks[i] = ByteBuffer.wrap(corpus, off, Math.min(chunkSize, corpus.length - off)).slice();
+        }
+        decoder = cs.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        output = CharBuffer.allocate(CodingProcessor.BUFFER_SIZE);
+        carry = ByteBuffer.allocate(64);
+    }
+
+    @Benchmark
+    public long decoder(CodecThroughput throughput) {
+        decoder.reset();
+        long chars = 0;
+        ByteBuffer carry = this.carry.clear().flip();
+        for (ByteBuffer chunk : chunks) {
+            chunk.clear();
+            // like the processor, only an incomplete sequence at the end of a chunk is copied
+            while (carry.hasRemaining() && chunk.hasRemaining()) {
+                carry.compact().put(chunk.get()).flip();
+                chars += decode(carry, false);
+            }
+            chars += decode(chunk, false);
+            carry.compact().put(chunk).flip();
+        }
+        chars += decode(carry, true);
+        decoder.flush(output);
+        chars += output.position();
+        output.clear();
+        throughput.bytes += corpusSize;
+        throughput.chars += chars;
+        return chars;
+    }
+
+    private int decode(ByteBuffer in, boolean endOfInput) {
+        int chars = 0;
+        while (decoder.decode(in, output, endOfInput).isOverflow()) {
+            chars += output.position();
+            output.clear();
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public long processor(CodecThroughput throughput) {
+        DecodingProcessor processor = new DecodingProcessor(cs);
+        Counter counter = new Counter(processor);
+        new ChunkPublisher(chunks).subscribe(processor);
+        processor.subscribe(counter);
+        throughput.bytes += corpusSize;
+        throughput.chars += counter.chars;
+        return counter.chars;
+    }
+
+    /**
+     * Publishes the chunks synchronously, in the calls of request.
+     */
+    private static final class ChunkPublisher implements Flow.Publisher<ByteBuffer> {
+
+        private final ByteBuffer[] chunks;
+
+        ChunkPublisher(ByteBuffer[] chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+
+                private long demand;
+
+                private int index;
+
+                private boolean emitting;
+
+                @Override
+                public void request(long n) {
+                    demand += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && index < chunks.length) {
+                        demand--;
+                        subscriber.onNext(chunks[index++].clear());
+                    }
+                    if (index == chunks.length) {
+                        index++;
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    index = chunks.length + 1;
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the decoded chars and gives the buffers back.
+     */
+    private static final class Counter implements Flow.Subscriber<CharBuffer> {
+
+        private final DecodingProcessor processor;
+
+        private Flow.Subscription subscription;
+
+        long chars;
+
+        Counter(DecodingProcessor processor) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(CharBuffer item) {
+            chars += item.remaining();
+            processor.release(item);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new IllegalStateException(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
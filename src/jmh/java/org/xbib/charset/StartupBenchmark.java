@@ -0,0 +1,108 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of a fresh JVM. Every fork measures one cold operation.
+ *
+ * {@code newCharset} is the time to construct the ANSEL charset, {@code firstDecode} the time
+ * to the first decoded ANSEL record, which loads the graphic sets it designates.
+ * {@code loadCodeTables} compares loading all graphic sets from the precompiled binary
+ * code tables with parsing {@code codetables.xml}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+    private static final byte[] RECORD = "Mu\u00e8ller, Jos\u00e2e\u001b(NmOSKWA\u001b(B\u001e"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    @State(Scope.Benchmark)
+    public static class CodeTables {
+
+        @Param({"binary", "xml"})
+        public String source;
+    }
+
+    @Benchmark
+    public Charset newCharset() throws IOException {
+        return new AnselCharset();
+    }
+
+    @Benchmark
+    public String firstDecode() throws CharacterCodingException {
+        return Charset.forName("ANSEL").newDecoder().decode(ByteBuffer.wrap(RECORD)).toString();
+    }
+
+    @Benchmark
+    public GraphicSet[] loadCodeTables(CodeTables codeTables) throws IOException {
+        GraphicSet[] graphicSets = new GraphicSet[128];
+        if ("binary".equals(codeTables.source)) {
+            try (InputStream inputStream = AnselCharset.class.getResourceAsStream(AnselCodeTables.RESOURCE)) {
+                AnselCodeTables anselCodeTables = AnselCodeTables.read(inputStream);
+                for (int i = 0; i < graphicSets.length; i++) {
+                    graphicSets[i] = anselCodeTables.graphicSet(i);
+                }
+            }
+            return graphicSets;
+        }
+        try (InputStream inputStream = AnselCharset.class.getResourceAsStream("codetables.xml")) {
+            for (AnselCodeTableParser.CodeTable codeTable : new AnselCodeTableParser(inputStream).getCodeTables()) {
+                for (AnselCodeTableParser.CharacterSet characterSet : codeTable.getCharacterSets()) {
+                    graphicSets[Integer.parseInt(characterSet.getIsoCode(), 16)] = new GraphicSet(characterSet);
+                }
+            }
+        }
+        return graphicSets;
+    }
+}
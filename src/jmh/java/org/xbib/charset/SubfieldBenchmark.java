@@ -0,0 +1,150 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding and encoding of short subfields. One operation decodes or encodes every
+ * subfield of the corpus, {@code string} and {@code bytes} go through {@link String},
+ * the others through the array methods of {@link BibliographicCharsets}.
+ *
+ * The GC profiler shows that {@code decodeToArray} and {@code encodeToArray} allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubfieldBenchmark {
+
+    @Param({"ANSEL", "ISO-5426", "MAB-Diskette"})
+    public String charset;
+
+    @Param({"0.1"})
+    public double diacriticDensity;
+
+    @Param({"65536"})
+    public int corpusSize;
+
+    private Charset cs;
+
+    private byte[] corpus;
+
+    private int[] subfields;
+
+    private String[] strings;
+
+    private char[] chars;
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cs = Charset.forName(charset);
+        corpus = BibliographicCorpus.generate(cs, corpusSize, diacriticDensity, 0.0, 0.0, 42L);
+        List<Integer> list = new ArrayList<>();
+        list.add(0);
+        for (int i = 0; i < corpus.length; i++) {
+            if (corpus[i] == BibliographicCorpus.SUBFIELD_DELIMITER
+                    || corpus[i] == BibliographicCorpus.FIELD_TERMINATOR) {
+                list.add(i);
+            }
+        }
+        list.add(corpus.length);
+        subfields = list.stream().mapToInt(Integer::intValue).toArray();
+        strings = new String[subfields.length - 1];
+        for (int i = 1; i < subfields.length; i++) {
+            strings[i - 1] = new String(corpus, subfields[i - 1], subfields[i] - subfields[i - 1], cs);
+        }
+        chars = new char[corpus.length];
+        bytes = new byte[corpus.length * 4];
+    }
+
+    @Benchmark
+    public void string(Blackhole blackhole) {
+        for (int i = 1; i < subfields.length; i++) {
+            blackhole.consume(new String(corpus, subfields[i - 1], subfields[i] - subfields[i - 1], cs));
+        }
+    }
+
+    @Benchmark
+    public void decodeToString(Blackhole blackhole) {
+        for (int i = 1; i < subfields.length; i++) {
+            blackhole.consume(BibliographicCharsets.decodeToString(cs, corpus, subfields[i - 1],
+                    subfields[i] - subfields[i - 1]));
+        }
+    }
+
+    @Benchmark
+    public int decodeToArray() {
+        int n = 0;
+        for (int i = 1; i < subfields.length; i++) {
+            n += BibliographicCharsets.decode(cs, corpus, subfields[i - 1], subfields[i] - subfields[i - 1],
+                    chars, 0);
+        }
+        return n;
+    }
+
+    @Benchmark
+    public void bytes(Blackhole blackhole) {
+        for (String string : strings) {
+            blackhole.consume(string.getBytes(cs));
+        }
+    }
+
+    @Benchmark
+    public int encodeToArray() {
+        int n = 0;
+        for (String string : strings) {
+            n += BibliographicCharsets.encode(cs, string, bytes, 0);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transcoding a corpus to UTF-8 with {@link BibliographicTranscoder}, by number of threads.
+ * {@code sequential} decodes and encodes the whole corpus on one thread for comparison.
+ *
+ * The {@code bytes} counter gives the input bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranscodeBenchmark {
+
+    @Param({"ANSEL", "ISO-5426"})
+    public String charset;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"1048576"})
+    public int chunkSize;
+
+    @Param({"16777216"})
+    public int corpusSize;
+
+    private Charset cs;
+
+    private byte[] corpus;
+
+    private BibliographicTranscoder transcoder;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cs = Charset.forName(charset);
+        corpus = BibliographicCorpus.generate(cs, corpusSize, 0.1, 0.02, 0.0, 42L);
+        transcoder = new BibliographicTranscoder(chunkSize, parallelism);
+    }
+
+    @Benchmark
+    public long transcode(CodecThroughput throughput) throws IOException {
+        throughput.bytes += corpus.length;
+        return transcoder.transcode(new ByteArrayInputStream(corpus), cs, OutputStream.nullOutputStream(),
+                StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long sequential(CodecThroughput throughput) {
+        throughput.bytes += corpus.length;
+        return new String(corpus, cs).getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting the records of a corpus to UTF-8 in Normalization Form C, as for indexing.
+ * {@code string} decodes to a {@link String}, composes and encodes, {@code direct} writes
+ * into a {@link ByteBuffer} with {@link ByteTranscoder#toUtf8(Charset)}.
+ *
+ * The {@code bytes} counter gives the input bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Utf8Benchmark {
+
+    @Param({"ANSEL", "ISO-5426", "x-PICA"})
+    public String charset;
+
+    @Param({"0.1"})
+    public double diacriticDensity;
+
+    @Param({"0.0"})
+    public double escapeFrequency;
+
+    @Param({"1048576"})
+    public int corpusSize;
+
+    private Charset cs;
+
+    private byte[] corpus;
+
+    private int[] records;
+
+    private ByteTranscoder transcoder;
+
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cs = Charset.forName(charset);
+        corpus = BibliographicCorpus.generate(cs, corpusSize, diacriticDensity, escapeFrequency, 0.0, 42L);
+        List<Integer> list = new ArrayList<>();
+        list.add(0);
+        for (int i = 0; i < corpus.length; i++) {
+            if (corpus[i] == BibliographicCorpus.RECORD_TERMINATOR) {
+                list.add(i + 1);
+            }
+        }
+        if (list.get(list.size() - 1) != corpus.length) {
+            list.add(corpus.length);
+        }
+        records = list.stream().mapToInt(Integer::intValue).toArray();
+        transcoder = ByteTranscoder.toUtf8(cs);
+        int max = 0;
+        for (int i = 1; i < records.length; i++) {
+            max = Math.max(max, records[i] - records[i - 1]);
+        }
+        buffer = ByteBuffer.allocate(transcoder.maxLength(max));
+    }
+
+    @Benchmark
+    public int string(CodecThroughput throughput) {
+        throughput.bytes += corpus.length;
+        int n = 0;
+        for (int i = 1; i < records.length; i++) {
+            String s = new String(corpus, records[i - 1], records[i] - records[i - 1], cs);
+            n += Normalizer.normalize(s, Normalizer.Form.NFC).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int direct(CodecThroughput throughput) {
+        throughput.bytes += corpus.length;
+        int n = 0;
+        for (int i = 1; i < records.length; i++) {
+            buffer.clear();
+            n += transcoder.transcode(ByteBuffer.wrap(corpus, records[i - 1], records[i] - records[i - 1]), buffer);
+        }
+        return n;
+    }
+}
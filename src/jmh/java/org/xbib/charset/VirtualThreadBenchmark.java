@@ -0,0 +1,141 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many virtual threads decoding one record each. {@code coders=new} creates a decoder per
+ * thread, {@code coders=pool} borrows one from {@link CoderPool}.
+ *
+ * Needs Java 21, run with {@code gradle jmh -Pjmh.java21 -Pjmh.include=VirtualThreadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    @Param({"ANSEL", "ISO-5426", "PICA"})
+    public String charset;
+
+    @Param({"new", "pool"})
+    public String coders;
+
+    @Param({"10000"})
+    public int threads;
+
+    @Param({"1048576"})
+    public int corpusSize;
+
+    private Charset cs;
+
+    private CoderPool pool;
+
+    private byte[] corpus;
+
+    private int[] records;
+
+    private int maxLength;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cs = Charset.forName(charset);
+        pool = CoderPool.of(cs);
+        corpus = BibliographicCorpus.generate(cs, corpusSize, 0.1, 0.02, 0.0, 42L);
+        records = BibliographicCorpus.windows(corpus, 1);
+        for (int i = 1; i < records.length; i++) {
+            maxLength = Math.max(maxLength, records[i] - records[i - 1]);
+        }
+    }
+
+    @Benchmark
+    public long decode() throws Exception {
+        AtomicLong chars = new AtomicLong();
+        boolean pooled = "pool".equals(coders);
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < threads; i++) {
+            int record = i % (records.length - 1);
+            executorService.execute(() -> {
+                if (pooled) {
+                    CharsetDecoder decoder = pool.borrowDecoder();
+                    try {
+                        chars.addAndGet(decode(decoder, record));
+                    } finally {
+                        pool.release(decoder);
+                    }
+                } else {
+                    chars.addAndGet(decode(cs.newDecoder(), record));
+                }
+            });
+        }
+        executorService.shutdown();
+        if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("timeout");
+        }
+        return chars.get();
+    }
+
+    private int decode(CharsetDecoder decoder, int record) {
+        ByteBuffer input = ByteBuffer.wrap(corpus, records[record], records[record + 1] - records[record]);
+        CharBuffer output = CharBuffer.allocate(maxLength);
+        decoder.decode(input, output, true);
+        decoder.flush(output);
+        return output.position();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        // Java 21
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+}
@@ -1,6 +1,8 @@
 module org.xbib.charset {
     exports org.xbib.charset;
+    requires static java.management;
     requires java.xml;
+    requires static jdk.jfr;
     provides java.nio.charset.spi.CharsetProvider with
             org.xbib.charset.BibliographicCharsetProvider;
 }
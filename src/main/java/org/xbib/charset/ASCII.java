@@ -112,49 +112,55 @@ final class ASCII extends Charset {
         return new Encoder(this);
     }
 
-    private static final class Decoder extends CharsetDecoder {
+    private static final class Decoder extends ArrayDecoder {
         Decoder(Charset cs) {
             super(cs, 1.0f, 1.0f);
         }
 
         @Override
-        protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
-            while (in.hasRemaining()) {
-                byte b = in.get();
-                if (b < 0) {
-                    in.position(in.position() - 1);
-                    return CoderResult.malformedForLength(1);
-                }
-                if (!out.hasRemaining()) {
-                    in.position(in.position() - 1);
-                    return CoderResult.OVERFLOW;
-                }
-                out.put((char) b);
+        protected CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
+            byte[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            char[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int n = Math.min(in.remaining(), out.remaining());
+            int i = 0;
+            while (i < n && src[sp + i] >= 0) {
+                dst[dp + i] = (char) src[sp + i];
+                i++;
             }
-            return CoderResult.UNDERFLOW;
+            in.position(in.position() + i);
+            out.position(out.position() + i);
+            if (i < n) {
+                return CoderResult.malformedForLength(1);
+            }
+            return in.hasRemaining() ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
         }
     }
 
-    private static final class Encoder extends CharsetEncoder {
+    private static final class Encoder extends ArrayEncoder {
         Encoder(Charset cs) {
             super(cs, 1.0f, 1.0f);
         }
 
         @Override
-        protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
-            while (in.hasRemaining()) {
-                char c = in.get();
-                if (c > Byte.MAX_VALUE) {
-                    in.position(in.position() - 1);
-                    return CoderResult.unmappableForLength(1);
-                }
-                if (!out.hasRemaining()) {
-                    in.position(in.position() - 1);
-                    return CoderResult.OVERFLOW;
-                }
-                out.put((byte) c);
+        protected CoderResult encodeArrays(CharBuffer in, ByteBuffer out) {
+            char[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            byte[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int n = Math.min(in.remaining(), out.remaining());
+            int i = 0;
+            while (i < n && src[sp + i] <= Byte.MAX_VALUE) {
+                dst[dp + i] = (byte) src[sp + i];
+                i++;
+            }
+            in.position(in.position() + i);
+            out.position(out.position() + i);
+            if (i < n) {
+                return CoderResult.unmappableForLength(1);
             }
-            return CoderResult.UNDERFLOW;
+            return in.hasRemaining() ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
         }
     }
 }
@@ -31,40 +31,39 @@
  */
 package org.xbib.charset;
 
-import java.io.CharArrayWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
-import java.nio.charset.StandardCharsets;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- *
+ * A Charset for MARC-8 (ANSEL, ANSI/NISO Z39.47) with the alternate graphic sets of
+ * the MARC 21 code tables. It decodes MARC-8 to Unicode and encodes Unicode to MARC-8.
  */
 public class AnselCharset extends Charset {
 
-    private final Map<String, AnselCodeTableParser.CharacterSet> characterSetMap;
+    /**
+     * The escape sequence designates a G1 set, see {@link #escapeSequence(byte[], int, int)}.
+     */
+    static final int G1_DESIGNATION = 0x100;
+
+    private final AnselCodeTables codeTables;
 
-    private final Charset encodeCharset;
+    private final AtomicReferenceArray<GraphicSet> graphicSets;
+
+    private EncodingIndex encodingIndex;
 
     public AnselCharset() throws IOException {
         super("ANSEL", BibliographicCharsetProvider.aliasesFor("ANSEL"));
-        this.encodeCharset = StandardCharsets.UTF_8;
-        characterSetMap = new LinkedHashMap<>();
-        try (InputStream inputStream = AnselCharset.class.getResourceAsStream(("codetables.xml"))) {
-            AnselCodeTableParser anselCodeTableParser = new AnselCodeTableParser(inputStream);
-            for (AnselCodeTableParser.CodeTable codeTable : anselCodeTableParser.getCodeTables()) {
-                for (AnselCodeTableParser.CharacterSet characterSet : codeTable.getCharacterSets()) {
-                    characterSetMap.put(characterSet.getName(), characterSet);
-                }
-            }
-        }
+        this.codeTables = AnselCodeTables.load();
+        this.graphicSets = new AtomicReferenceArray<>(128);
     }
 
     @Override
@@ -73,196 +72,720 @@ public class AnselCharset extends Charset {
     }
 
     public CharsetEncoder newEncoder() {
-        throw new UnsupportedOperationException();
+        return new Encoder(this, encodingIndex());
     }
 
     public CharsetDecoder newDecoder() {
-        return new Decoder(this, encodeCharset.newDecoder());
+        return new Decoder(this);
     }
 
-    private static class Decoder extends CharsetDecoder {
-
-        private String g0;
+    /**
+     * @param finalCharacter the final character of the escape sequence designating the graphic set
+     * @return the graphic set
+     */
+    GraphicSet graphicSet(char finalCharacter) {
+        GraphicSet graphicSet = graphicSets.get(finalCharacter);
+        if (graphicSet == null) {
+            // graphic sets are built on first use, most records need only Basic and Extended Latin
+            graphicSet = codeTables.graphicSet(finalCharacter);
+            if (graphicSet != null && !graphicSets.compareAndSet(finalCharacter, null, graphicSet)) {
+                graphicSet = graphicSets.get(finalCharacter);
+            }
+        }
+        return graphicSet;
+    }
 
-        private String g1;
+    /**
+     * ANSI X3.41 or ISO 2022 escape technique.
+     * See procedures in IS0 2375-1985.
+     *
+     * @param src the input
+     * @param sp the position after the escape character
+     * @param end the end of the input
+     * @return -1 if the escape sequence is not complete, else the length of the escape sequence after
+     * the escape character in the low byte, {@link #G1_DESIGNATION} for a G1 set, and the final
+     * character of the designated graphic set in the high bits, zero if no graphic set is designated
+     */
+    static int escapeSequence(byte[] src, int sp, int end) {
+        if (sp == end) {
+            return -1;
+        }
+        byte oneByte = src[sp];
+        switch (oneByte) {
+            case 's':
+                return 1 | 'B' << 16;
+            case 'g':
+            case 'b':
+            case 'p':
+                return 1 | oneByte << 16;
+            case '(':
+            case ',':
+            case ')':
+            case '-':
+            case '$':
+            case '!':
+                if (end - sp < 2) {
+                    return -1;
+                }
+                byte twoByte = src[sp + 1];
+                if (oneByte == '(' || oneByte == ',') {
+                    return 2 | designation(twoByte) << 16;
+                } else if (oneByte == ')' || oneByte == '-') {
+                    return 2 | G1_DESIGNATION | designation(twoByte) << 16;
+                } else if (oneByte == '$') {
+                    return twoByte == '1' ? 2 | '1' << 16 : 2;
+                } else {
+                    return twoByte == 'E' ? 2 | 'E' << 16 : 2;
+                }
+            default:
+                return 1;
+        }
+    }
 
-        Decoder(AnselCharset cs, CharsetDecoder baseDecoder) {
-            super(cs, baseDecoder.averageCharsPerByte(), baseDecoder.maxCharsPerByte());
+    private static int designation(byte finalCharacter) {
+        switch (finalCharacter) {
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case 'B':
+            case 'N':
+            case 'Q':
+            case 'S':
+                return finalCharacter;
+            default:
+                return 0;
         }
+    }
 
-        @Override
-        protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
-            AnselCharset charset = (AnselCharset) charset();
-            g0 = "Basic Latin (ASCII)";
-            g1 = "Extended Latin (ANSEL)";
-            CharArrayWriter w = new CharArrayWriter();
-            CharArrayWriter diacritics = new CharArrayWriter();
-            int pos = in.position();
-            while (in.hasRemaining()) {
-                byte b = in.get();
-                char oldChar = (char) (b & 0xFF);
-                if (oldChar == '\u001b') {
-                    handleEscapeSequence(in);
-                    if (in.hasRemaining()) {
-                        b = in.get();
-                        oldChar = (char) (b & 0xFF);
+    /**
+     * Find where the input returns to the initial state of a decoder, Basic Latin as G0, Extended
+     * Latin as G1, and no diacritics waiting for their base character, after an escape sequence.
+     *
+     * @param src the input
+     * @param sp the start position, in the initial state
+     * @param end the end of the input
+     * @return the position after the escape sequence which returns to the initial state, or the end
+     */
+    int initialStateAfterEscape(byte[] src, int sp, int end) {
+        GraphicSet basicLatin = graphicSet('B');
+        GraphicSet extendedLatin = graphicSet('E');
+        GraphicSet g0 = basicLatin;
+        GraphicSet g1 = extendedLatin;
+        boolean combining = false;
+        int p = sp;
+        while (p < end) {
+            int b = src[p] & 0xff;
+            GraphicSet graphicSet = b < 0x80 ? g0 : g1;
+            if (graphicSet == null) {
+                return end;
+            }
+            int entry = graphicSet.entry(b);
+            if ((entry & GraphicSet.ESCAPE) != 0) {
+                int escape = escapeSequence(src, p + 1, end);
+                if (escape < 0) {
+                    return end;
+                }
+                char finalCharacter = (char) (escape >>> 16);
+                if (finalCharacter != 0) {
+                    if ((escape & G1_DESIGNATION) != 0) {
+                        g1 = graphicSet(finalCharacter);
                     } else {
-                        // premature end of escape sequence, no data following
-                        return CoderResult.UNDERFLOW;
+                        g0 = graphicSet(finalCharacter);
                     }
                 }
-                AnselCodeTableParser.CharacterSet characterSet = isG0(oldChar) ?
-                        charset.characterSetMap.get(g0) :
-                        isG1(oldChar) ? charset.characterSetMap.get(g1) : null;
-                int len = characterSet != null ? characterSet.getLength() : 1;
-                String str = len == 1 ? "" + oldChar : "" + oldChar + (char) (in.get() & 0xFF) + (char) (in.get() & 0xFF);
-                AnselCodeTableParser.Code code = characterSet != null ? characterSet.getMarc().get(str) : null;
-                char ch = code != null ? code.getUcs() : oldChar;
-                if (ch == '\u0000') {
-                    // FB, EC - see http://memory.loc.gov/diglib/codetables/45.html#Note1 and http://memory.loc.gov/diglib/codetables/45.html#Note2
-                    continue;
+                p += 1 + (escape & 0xff);
+                if (g0 == basicLatin && g1 == extendedLatin && !combining) {
+                    return p;
                 }
-                boolean isDiacritic = code != null ? isDiacritic(oldChar) || code.isCombining() : isDiacritic(oldChar);
-                if (isDiacritic) {
-                    diacritics.write(ch);
-                } else {
-                    w.write(ch);
-                    // diacritics must be appended in Unicode, but are prepended in MARC-8 / Z39.47
-                    if (diacritics.toCharArray().length > 0) {
-                        try {
-                            w.write(diacritics.toCharArray());
-                        } catch (IOException e) {
-                            w.flush();
-                        }
-                        diacritics = new CharArrayWriter();
+                continue;
+            }
+            if ((entry & GraphicSet.MULTIBYTE) != 0) {
+                if (end - p < 3) {
+                    return end;
+                }
+                entry = graphicSet.entry(b, src[p + 1] & 0xff, src[p + 2] & 0xff);
+                p += 3;
+            } else {
+                p++;
+            }
+            if ((entry & GraphicSet.SKIP) == 0) {
+                combining = (entry & GraphicSet.COMBINING) != 0;
+            }
+        }
+        return end;
+    }
+
+    private synchronized EncodingIndex encodingIndex() {
+        if (encodingIndex == null) {
+            encodingIndex = new EncodingIndex(this);
+        }
+        return encodingIndex;
+    }
+
+    /**
+     * The graphic sets which can encode a character, by character. Extended Latin (ANSEL)
+     * is always designated as G1, the other graphic sets are designated as G0.
+     * Building the index loads all graphic sets.
+     */
+    private static final class EncodingIndex {
+
+        /**
+         * The character is a control character or a space, encoded as itself in any graphic set.
+         */
+        static final int RAW = 0x10000;
+
+        /**
+         * The character is in the G1 set Extended Latin (ANSEL).
+         */
+        static final int G1 = 0x20000;
+
+        /**
+         * The character is a combining character and precedes its base character.
+         */
+        static final int COMBINING = 0x40000;
+
+        static final int G0_MASK = 0xffff;
+
+        /**
+         * The G0 sets, Basic Latin (ASCII) first.
+         */
+        private final GraphicSet[] g0Sets;
+
+        private final byte[][] escapes;
+
+        private final GraphicSet extendedLatin;
+
+        private final int[][] index;
+
+        private final AtomicReferenceArray<char[][]> decompositions;
+
+        EncodingIndex(AnselCharset charset) {
+            String finals = "BgbpNQS2341";
+            this.g0Sets = new GraphicSet[finals.length()];
+            this.escapes = new byte[finals.length()][];
+            for (int i = 0; i < finals.length(); i++) {
+                char finalCharacter = finals.charAt(i);
+                g0Sets[i] = charset.graphicSet(finalCharacter);
+                escapes[i] = finalCharacter == '1' ? new byte[]{0x1B, '$', '1'} :
+                        Character.isLowerCase(finalCharacter) ? new byte[]{0x1B, (byte) finalCharacter} :
+                                new byte[]{0x1B, '(', (byte) finalCharacter};
+            }
+            this.extendedLatin = charset.graphicSet('E');
+            this.index = new int[256][];
+            for (int ch = 1; ch < 0x10000; ch++) {
+                int info = computeInfo((char) ch);
+                if (info != 0) {
+                    if (index[ch >>> 8] == null) {
+                        index[ch >>> 8] = new int[256];
                     }
+                    index[ch >>> 8][ch & 0xff] = info;
                 }
             }
-            for (char ch : w.toCharArray()) {
+            this.decompositions = new AtomicReferenceArray<>(256);
+        }
+
+        private int computeInfo(char ch) {
+            if ((ch <= 0x20 && ch != 0x1B) || (ch >= 0x7F && ch <= 0xA0)) {
+                return RAW;
+            }
+            // a character is combining or not as in the first graphic set which contains it
+            int code = extendedLatin.code(ch);
+            boolean high = code != 0 && GraphicSet.isHigh(code);
+            int combining = high ? code & GraphicSet.COMBINING_CODE : -1;
+            int info = high ? G1 : 0;
+            for (int i = 0; i < g0Sets.length; i++) {
+                code = g0Sets[i].code(ch);
+                if (code != 0 && !GraphicSet.isHigh(code)) {
+                    if (combining == -1) {
+                        combining = code & GraphicSet.COMBINING_CODE;
+                    }
+                    if ((code & GraphicSet.COMBINING_CODE) == combining) {
+                        info |= 1 << i;
+                    }
+                }
+            }
+            return info != 0 && combining != 0 ? info | COMBINING : info;
+        }
+
+        int info(int ch) {
+            int[] page = index[ch >>> 8];
+            return page != null ? page[ch & 0xff] : 0;
+        }
+
+        /**
+         * MARC-8 has no precomposed characters, they are encoded by their canonical decomposition.
+         *
+         * @param ch a character which is not in any graphic set
+         * @return the canonical decomposition, or null if it can not be encoded
+         */
+        char[] decomposition(char ch) {
+            char[][] page = decompositions.get(ch >>> 8);
+            if (page == null) {
+                page = decompositions(ch >>> 8);
+                decompositions.set(ch >>> 8, page);
+            }
+            return page[ch & 0xff];
+        }
+
+        private char[][] decompositions(int page) {
+            List<String> singles = new ArrayList<>(256);
+            for (int i = 0; i < 256; i++) {
+                char ch = (char) (page << 8 | i);
+                singles.add(ch == 0 || Character.isSurrogate(ch) ? "" : String.valueOf(ch));
+            }
+            String[] nfd = CompositionTable.normalize(singles, Normalizer.Form.NFD);
+            char[][] decompositions = new char[256][];
+            for (int i = 0; i < 256; i++) {
+                String s = nfd[i];
+                boolean encodable = s.length() > 1 && info(s.charAt(0)) != 0
+                        && (info(s.charAt(0)) & COMBINING) == 0;
+                for (int j = 1; j < s.length(); j++) {
+                    encodable &= (info(s.charAt(j)) & COMBINING) != 0;
+                }
+                if (encodable) {
+                    decompositions[i] = s.toCharArray();
+                }
+            }
+            return decompositions;
+        }
+    }
+
+    private static class Decoder extends ArrayDecoder {
+
+        /**
+         * The maximum number of combining characters before a base character.
+         */
+        private static final int MAX_COMBINING = 32;
+
+        private final GraphicSet basicLatin;
+
+        private final GraphicSet extendedLatin;
+
+        private final char[] combining;
+
+        private int combiningLength;
+
+        /**
+         * The number of diacritics already appended after the base character, or -1 if the
+         * diacritics are still waiting for their base character.
+         */
+        private int combiningOffset;
+
+        private GraphicSet g0;
+
+        private GraphicSet g1;
+
+        Decoder(AnselCharset cs) {
+            super(cs, 1.0f, 1.0f);
+            this.basicLatin = cs.graphicSet('B');
+            this.extendedLatin = cs.graphicSet('E');
+            this.combining = new char[MAX_COMBINING];
+            resetState();
+        }
+
+        @Override
+        protected CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
+            if (combiningOffset >= 0 && !appendCombining(out)) {
+                return CoderResult.OVERFLOW;
+            }
+            while (in.hasRemaining()) {
+                if (combiningLength == 0 && !decodePlain(in, out)) {
+                    break;
+                }
+                int b = in.get() & 0xff;
+                GraphicSet graphicSet = b < 0x80 ? g0 : g1;
+                int entry = graphicSet.entry(b);
+                int length = 1;
+                if ((entry & GraphicSet.SPECIAL) != 0) {
+                    if ((entry & GraphicSet.ESCAPE) != 0) {
+                        if (!handleEscapeSequence(in)) {
+                            // wait for the rest of the escape sequence
+                            in.position(in.position() - 1);
+                            return CoderResult.UNDERFLOW;
+                        }
+                        continue;
+                    }
+                    if ((entry & GraphicSet.MULTIBYTE) != 0) {
+                        if (in.remaining() < 2) {
+                            // wait for the rest of the code
+                            in.position(in.position() - 1);
+                            return CoderResult.UNDERFLOW;
+                        }
+                        entry = graphicSet.entry(b, in.get() & 0xff, in.get() & 0xff);
+                        length = 3;
+                    }
+                    if ((entry & GraphicSet.SKIP) != 0) {
+                        // FB, EC - see http://memory.loc.gov/diglib/codetables/45.html#Note1 and http://memory.loc.gov/diglib/codetables/45.html#Note2
+                        continue;
+                    }
+                    if ((entry & GraphicSet.COMBINING) != 0) {
+                        if (combiningLength == MAX_COMBINING) {
+                            in.position(in.position() - length);
+                            return CoderResult.malformedForLength(length);
+                        }
+                        combining[combiningLength++] = (char) entry;
+                        if ((entry & GraphicSet.UNMAPPED) != 0) {
+                            unmapped(in, length);
+                        }
+                        continue;
+                    }
+                }
                 if (!out.hasRemaining()) {
-                    in.position(pos - 1);
+                    in.position(in.position() - length);
                     return CoderResult.OVERFLOW;
                 }
-                out.put(ch);
+                out.put((char) entry);
+                if ((entry & GraphicSet.UNMAPPED) != 0) {
+                    unmapped(in, length);
+                }
+                // diacritics must be appended in Unicode, but are prepended in MARC-8 / Z39.47
+                if (combiningLength > 0) {
+                    combiningOffset = 0;
+                    if (!appendCombining(out)) {
+                        return CoderResult.OVERFLOW;
+                    }
+                }
             }
             return CoderResult.UNDERFLOW;
         }
 
-        private boolean isDiacritic(char ch) {
-            return ch >= 0xE0 && ch <= 0xFF;
+        @Override
+        protected CoderResult flushBuffer(CharBuffer out) {
+            return combiningOffset >= 0 && !appendCombining(out) ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
+        }
+
+        /**
+         * Record the bytes before the input position, which are passed through as they have no character.
+         *
+         * @param in the input
+         * @param length the number of bytes
+         */
+        private void unmapped(ByteBuffer in, int length) {
+            for (int i = length; i > 0; i--) {
+                error(offset(in) - i, in.get(in.position() - i) & 0xff);
+            }
+        }
+
+        /**
+         * Decode the run of bytes at the start of the input which are plain characters in the
+         * current graphic sets, mostly ASCII.
+         *
+         * @param in the input
+         * @param out the output
+         * @return true if the input has remaining bytes
+         */
+        private boolean decodePlain(ByteBuffer in, CharBuffer out) {
+            byte[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            char[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int n = Math.min(in.remaining(), out.remaining());
+            int i = 0;
+            while (i < n) {
+                int b = src[sp + i] & 0xff;
+                int entry = b < 0x80 ? g0.entry(b) : g1.entry(b);
+                if ((entry & GraphicSet.SPECIAL) != 0) {
+                    break;
+                }
+                dst[dp + i] = (char) entry;
+                i++;
+            }
+            in.position(in.position() + i);
+            out.position(out.position() + i);
+            return in.hasRemaining();
         }
 
-        private boolean isG0(char ch) {
-            return ch >= 0x21 && ch <= 0x7E;
+        /**
+         * Append the pending diacritics after their base character, as far as the output has room.
+         *
+         * @param out the output
+         * @return false if the output is full and diacritics are still pending
+         */
+        private boolean appendCombining(CharBuffer out) {
+            int length = Math.min(out.remaining(), combiningLength - combiningOffset);
+            out.put(combining, combiningOffset, length);
+            combiningOffset += length;
+            if (combiningOffset < combiningLength) {
+                return false;
+            }
+            combiningLength = 0;
+            combiningOffset = -1;
+            return true;
         }
 
-        private boolean isG1(char ch) {
-            return ch >= 0xA1 && ch <= 0xFE;
+        @Override
+        protected void resetState() {
+            g0 = basicLatin;
+            g1 = extendedLatin;
+            combiningLength = 0;
+            combiningOffset = -1;
         }
 
         /**
-         * ANSI X3.41 or ISO 2022 escape technique.
-         * See procedures in IS0 2375-1985.
+         * Nothing is consumed if the escape sequence is not complete.
          *
-         * @param in byte buffer
+         * @param in byte buffer, positioned after the escape character
+         * @return false if more input is needed
          */
-        private void handleEscapeSequence(ByteBuffer in) {
-            byte oneByte = in.get();
-            switch (oneByte) {
-                case 's':
-                    g0 = "Basic Latin (ASCII)";
-                    break;
-                case 'g':
-                    g0 = "Greek Symbols";
-                    break;
-                case 'b':
-                    g0 = "Subscripts";
-                    break;
-                case 'p':
-                    g0 = "Superscripts";
-                    break;
-                case '(':
-                case ',':
-                    oneByte = in.get();
-                    switch (oneByte) {
-                        case '1':
-                            g0 = "Chinese, Japanese, Korean (EACC)";
-                            break;
-                        case '2':
-                            g0 = "Basic Hebrew";
-                            break;
-                        case '3':
-                            g0 = "Basic Arabic";
-                            break;
-                        case '4':
-                            g0 = "Extended Arabic";
-                            break;
-                        case 'B':
-                            g0 = "Basic Latin (ASCII)";
-                            break;
-                        case 'N':
-                            g0 = "Basic Cyrillic";
-                            break;
-                        case 'Q':
-                            g0 = "Extended Cyrillic";
-                            break;
-                        case 'S':
-                            g0 = "Basic Greek";
-                            break;
-                        default:
-                            break;
+        private boolean handleEscapeSequence(ByteBuffer in) {
+            int escape = escapeSequence(in.array(), in.arrayOffset() + in.position(), in.arrayOffset() + in.limit());
+            if (escape < 0) {
+                return false;
+            }
+            char finalCharacter = (char) (escape >>> 16);
+            if (finalCharacter != 0) {
+                if (CharsetMetrics.ENABLED) {
+                    metrics.escaped(finalCharacter);
+                }
+                GraphicSet graphicSet = ((AnselCharset) charset()).graphicSet(finalCharacter);
+                if ((escape & G1_DESIGNATION) != 0) {
+                    g1 = graphicSet;
+                } else {
+                    g0 = graphicSet;
+                }
+            } else {
+                CharsetEvents.unknownEscape(charset(), offset(in) - 1, in.array(),
+                        in.arrayOffset() + in.position(), escape & 0xff);
+            }
+            in.position(in.position() + (escape & 0xff));
+            return true;
+        }
+    }
+
+    private static class Encoder extends ArrayEncoder {
+
+        /**
+         * The maximum number of characters in a cluster.
+         */
+        private static final int MAX_CLUSTER = 32;
+
+        /**
+         * The maximum number of characters to look ahead when choosing a G0 set.
+         */
+        private static final int LOOKAHEAD = 64;
+
+        private static final int ASCII = 0;
+
+        private static final int NONE = -1;
+
+        private static final int G1 = -2;
+
+        private static final int RAW = -3;
+
+        private final EncodingIndex index;
+
+        private final char[] cluster;
+
+        private int clusterLength;
+
+        private int g0;
+
+        Encoder(AnselCharset cs, EncodingIndex index) {
+            // an escape sequence and a three byte code, and the escape sequence back to ASCII at the end
+            super(cs, 1.0f, 9.0f);
+            this.index = index;
+            this.cluster = new char[MAX_CLUSTER];
+        }
+
+        @Override
+        protected CoderResult encodeArrays(CharBuffer in, ByteBuffer out) {
+            while (in.hasRemaining()) {
+                if (clusterLength == 0 && g0 == ASCII) {
+                    encodeAscii(in, out);
+                }
+                char c = in.get();
+                int info = index.info(c);
+                if (clusterLength > 0) {
+                    if ((info & EncodingIndex.COMBINING) != 0) {
+                        if (clusterLength == MAX_CLUSTER) {
+                            in.position(in.position() - 1);
+                            return CoderResult.malformedForLength(1);
+                        }
+                        cluster[clusterLength++] = c;
+                        continue;
                     }
-                    break;
-                case ')':
-                case '-':
-                    oneByte = in.get();
-                    switch (oneByte) {
-                        case '1':
-                            g1 = "Chinese, Japanese, Korean (EACC)";
-                            break;
-                        case '2':
-                            g1 = "Basic Hebrew";
-                            break;
-                        case '3':
-                            g1 = "Basic Arabic";
-                            break;
-                        case '4':
-                            g1 = "Extended Arabic";
-                            break;
-                        case 'B':
-                            g1 = "Basic Latin (ASCII)";
-                            break;
-                        case 'N':
-                            g1 = "Basic Cyrillic";
-                            break;
-                        case 'Q':
-                            g1 = "Extended Cyrillic";
-                            break;
-                        case 'S':
-                            g1 = "Basic Greek";
-                            break;
-                        default:
-                            break;
+                    if (!writeCluster(in, in.position() - 1, out)) {
+                        in.position(in.position() - 1);
+                        return CoderResult.OVERFLOW;
                     }
-                    break;
-                case '$':
-                    oneByte = in.get();
-                    if (oneByte == '1') {
-                        g0 = "Chinese, Japanese, Korean (EACC)";
+                }
+                if (g0 == ASCII && c > 0x20 && c < 0x7F && in.hasRemaining()
+                        && (index.info(in.get(in.position())) & EncodingIndex.COMBINING) == 0) {
+                    if (!out.hasRemaining()) {
+                        in.position(in.position() - 1);
+                        return CoderResult.OVERFLOW;
                     }
-                    break;
-                case '!':
-                    oneByte = in.get();
-                    if (oneByte == 'E') {
-                        g0 = "Extended Latin (ANSEL)";
+                    out.put((byte) c);
+                    continue;
+                }
+                if (info == 0) {
+                    char[] decomposition = index.decomposition(c);
+                    if (decomposition != null) {
+                        System.arraycopy(decomposition, 0, cluster, 0, decomposition.length);
+                        clusterLength = decomposition.length;
+                        continue;
                     }
-                    break;
-                default:
-                    break;
+                    // the replacement is written in ASCII
+                    if (!designate(ASCII, out)) {
+                        in.position(in.position() - 1);
+                        return CoderResult.OVERFLOW;
+                    }
+                    if (Character.isHighSurrogate(c)) {
+                        if (!in.hasRemaining()) {
+                            in.position(in.position() - 1);
+                            return CoderResult.UNDERFLOW;
+                        }
+                        if (Character.isLowSurrogate(in.get(in.position()))) {
+                            in.position(in.position() - 1);
+                            return CoderResult.unmappableForLength(2);
+                        }
+                    }
+                    in.position(in.position() - 1);
+                    return Character.isSurrogate(c) ? CoderResult.malformedForLength(1) :
+                            CoderResult.unmappableForLength(1);
+                }
+                cluster[clusterLength++] = c;
             }
+            return CoderResult.UNDERFLOW;
         }
-    }
 
-}
+        @Override
+        protected CoderResult flushBuffer(ByteBuffer out) {
+            return writeCluster(null, 0, out) && designate(ASCII, out) ? CoderResult.UNDERFLOW : CoderResult.OVERFLOW;
+        }
+
+        @Override
+        protected void implReset() {
+            clusterLength = 0;
+            g0 = ASCII;
+        }
 
+        /**
+         * Copy the run of ASCII characters at the start of the input as long as the next
+         * character is below 0x80, too, so it can not be a combining character. Control
+         * characters and the space are written as themselves in ASCII, except ESC and NUL.
+         * The last character of the input is left to the caller.
+         */
+        private static void encodeAscii(CharBuffer in, ByteBuffer out) {
+            char[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            byte[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int n = Math.min(in.remaining() - 1, out.remaining());
+            int i = 0;
+            while (i < n && src[sp + i] < 0x7F && src[sp + i] != 0x1B && src[sp + i] != 0
+                    && src[sp + i + 1] < 0x80) {
+                dst[dp + i] = (byte) src[sp + i];
+                i++;
+            }
+            in.position(in.position() + i);
+            out.position(out.position() + i);
+        }
 
+        /**
+         * Write the pending cluster, the combining characters first, then the base character.
+         * Fields and records end in ASCII.
+         *
+         * @param in the input, for looking ahead, or null
+         * @param lookahead the position of the input after the cluster
+         * @param out the output
+         * @return false if the output has not enough room, nothing is written then
+         */
+        private boolean writeCluster(CharBuffer in, int lookahead, ByteBuffer out) {
+            if (clusterLength == 0) {
+                return true;
+            }
+            int length = 0;
+            int set = g0;
+            for (int i = 1; i <= clusterLength; i++) {
+                char ch = cluster[i % clusterLength];
+                int choice = ch == 0x1D || ch == 0x1E ? ASCII : choose(ch, set, in, lookahead);
+                if (choice >= 0 && choice != set) {
+                    length += index.escapes[choice].length;
+                    set = choice;
+                }
+                length += choice == RAW || ch == 0x1D || ch == 0x1E ? 1 :
+                        GraphicSet.length(code(ch, choice));
+            }
+            if (out.remaining() < length) {
+                return false;
+            }
+            for (int i = 1; i <= clusterLength; i++) {
+                char ch = cluster[i % clusterLength];
+                int choice = ch == 0x1D || ch == 0x1E ? ASCII : choose(ch, g0, in, lookahead);
+                designate(choice, out);
+                if (choice == RAW || ch == 0x1D || ch == 0x1E) {
+                    out.put((byte) ch);
+                } else {
+                    int code = code(ch, choice);
+                    for (int j = 0; j < GraphicSet.length(code); j++) {
+                        out.put((byte) (code >>> (8 * j)));
+                    }
+                }
+            }
+            clusterLength = 0;
+            return true;
+        }
+
+        private boolean designate(int set, ByteBuffer out) {
+            if (set >= 0 && set != g0) {
+                if (out.remaining() < index.escapes[set].length) {
+                    return false;
+                }
+                out.put(index.escapes[set]);
+                if (CharsetMetrics.ENABLED) {
+                    metrics.escaped((char) index.escapes[set][index.escapes[set].length - 1]);
+                }
+                g0 = set;
+            }
+            return true;
+        }
+
+        private int code(char ch, int choice) {
+            return choice == G1 ? index.extendedLatin.code(ch) : index.g0Sets[choice].code(ch);
+        }
+
+        /**
+         * Choose the graphic set for a character. The current G0 set and the G1 set need no
+         * escape sequence. Otherwise, the G0 set which covers most of the following characters
+         * is chosen, so the sets do not change back and forth.
+         */
+        private int choose(char ch, int set, CharBuffer in, int lookahead) {
+            int info = index.info(ch);
+            if ((info & EncodingIndex.RAW) != 0) {
+                return RAW;
+            }
+            if ((info & (1 << set)) != 0) {
+                return set;
+            }
+            if ((info & EncodingIndex.G1) != 0) {
+                return G1;
+            }
+            int best = NONE;
+            int bestCoverage = -1;
+            for (int i = 0; i < index.g0Sets.length; i++) {
+                if ((info & (1 << i)) != 0) {
+                    int coverage = coverage(i, in, lookahead);
+                    if (coverage > bestCoverage) {
+                        best = i;
+                        bestCoverage = coverage;
+                    }
+                }
+            }
+            return best;
+        }
+
+        private int coverage(int set, CharBuffer in, int lookahead) {
+            int coverage = 0;
+            if (in != null) {
+                int limit = Math.min(in.limit(), lookahead + LOOKAHEAD);
+                int mask = EncodingIndex.RAW | EncodingIndex.G1 | 1 << set;
+                for (int i = lookahead; i < limit && (index.info(in.get(i)) & mask) != 0; i++) {
+                    coverage++;
+                }
+            }
+            return coverage;
+        }
+    }
+}
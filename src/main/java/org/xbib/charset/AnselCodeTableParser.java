@@ -32,6 +32,7 @@
 package org.xbib.charset;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -113,7 +114,7 @@ class AnselCodeTableParser {
                         String attributeValue = attr.getValue();
                         if ("name".equals(attributeLocalName)) {
                             characterSet.name = attributeValue;
-                        } else if ("isoCode".equals(attributeLocalName)) {
+                        } else if ("ISOcode".equals(attributeLocalName)) {
                             characterSet.isoCode = attributeValue;
                         }
                     }
@@ -185,7 +186,7 @@ class AnselCodeTableParser {
                     break;
                 }
                 case "isCombining": {
-                    code.isCombining = "true".equals(content.toString());
+                    code.isCombining = "true".equals(content.toString().trim());
                     break;
                 }
                 default:
@@ -213,8 +214,10 @@ class AnselCodeTableParser {
         int length;
         Map<String, Code> marc = new HashMap<>();
         Map<Character, Code> unicode = new HashMap<>();
+        List<Code> codes = new ArrayList<>();
 
         void add(Code code) {
+            codes.add(code);
             marc.putIfAbsent(code.marc, code);
             length = code.marc.length();
             unicode.putIfAbsent(code.ucs, code);
@@ -239,6 +242,10 @@ class AnselCodeTableParser {
         Map<Character, Code> getUnicode() {
             return unicode;
         }
+
+        List<Code> getCodes() {
+            return codes;
+        }
     }
 
     static class Code {
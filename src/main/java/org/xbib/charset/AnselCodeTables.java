@@ -0,0 +1,195 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The MARC-8 code tables in a compact binary form, precompiled from {@code codetables.xml}
+ * at build time, so they can be loaded with a single bulk read instead of parsing XML.
+ * The graphic sets are built from the binary form on demand, one by one.
+ *
+ * The format is a magic number, a version, and the number of character sets, followed by each
+ * character set with its ISO code, its name, the number of codes, the codes in the layout
+ * of {@link GraphicSet#codes(List)}, and the characters of the codes.
+ */
+final class AnselCodeTables {
+
+    static final String RESOURCE = "codetables.bin";
+
+    private static final int MAGIC = 0x4D415243;
+
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+
+    private final int[] offsets;
+
+    private AnselCodeTables(byte[] bytes) throws IOException {
+        this.buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        this.offsets = new int[128];
+        Arrays.fill(offsets, -1);
+        ByteBuffer in = buffer.duplicate();
+        if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("invalid code tables");
+        }
+        try {
+            for (int count = in.getInt(); count > 0; count--) {
+                int offset = in.position();
+                int isoCode = in.get() & 0x7f;
+                int nameLength = in.getShort();
+                in.position(in.position() + nameLength);
+                int length = in.getInt();
+                in.position(in.position() + length * 6);
+                offsets[isoCode] = offset;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("invalid code tables", e);
+        }
+    }
+
+    /**
+     * Load the code tables precompiled at build time, or parse {@code codetables.xml}
+     * if they are not available, e.g. when running from an IDE.
+     *
+     * @return the code tables
+     * @throws IOException if the code tables can not be read
+     */
+    static AnselCodeTables load() throws IOException {
+        try (InputStream inputStream = AnselCodeTables.class.getResourceAsStream(RESOURCE)) {
+            if (inputStream != null) {
+                return read(inputStream);
+            }
+        }
+        try (InputStream inputStream = AnselCodeTables.class.getResourceAsStream("codetables.xml")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write(new AnselCodeTableParser(inputStream).getCodeTables(), bytes);
+            return new AnselCodeTables(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * @param inputStream the binary code tables
+     * @return the code tables
+     * @throws IOException if the code tables can not be read
+     */
+    static AnselCodeTables read(InputStream inputStream) throws IOException {
+        return new AnselCodeTables(inputStream.readAllBytes());
+    }
+
+    /**
+     * Build a graphic set. This may be called concurrently.
+     *
+     * @param isoCode the ISO code of the graphic set, the final character of its escape sequence
+     * @return a new graphic set, or null if there is no graphic set with this ISO code
+     */
+    GraphicSet graphicSet(int isoCode) {
+        int offset = isoCode < offsets.length ? offsets[isoCode] : -1;
+        if (offset < 0) {
+            return null;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset + 1);
+        byte[] name = new byte[in.getShort()];
+        in.get(name);
+        int[] codes = new int[in.getInt()];
+        in.asIntBuffer().get(codes);
+        in.position(in.position() + codes.length * 4);
+        char[] characters = new char[codes.length];
+        in.asCharBuffer().get(characters);
+        return new GraphicSet(new String(name, StandardCharsets.UTF_8), codes, characters);
+    }
+
+    /**
+     * Compile the code tables.
+     *
+     * @param args the path of {@code codetables.xml} and the path of the binary file to write
+     * @throws IOException if the files can not be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("usage: AnselCodeTables <codetables.xml> <codetables.bin>");
+        }
+        Path target = Paths.get(args[1]);
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        try (InputStream inputStream = Files.newInputStream(Paths.get(args[0]));
+             OutputStream outputStream = Files.newOutputStream(target)) {
+            write(new AnselCodeTableParser(inputStream).getCodeTables(), outputStream);
+        }
+    }
+
+    static void write(List<AnselCodeTableParser.CodeTable> codeTables, OutputStream outputStream)
+            throws IOException {
+        if (codeTables == null) {
+            throw new IOException("invalid code tables");
+        }
+        List<AnselCodeTableParser.CharacterSet> characterSets = new ArrayList<>();
+        for (AnselCodeTableParser.CodeTable codeTable : codeTables) {
+            characterSets.addAll(codeTable.getCharacterSets());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(characterSets.size());
+        for (AnselCodeTableParser.CharacterSet characterSet : characterSets) {
+            byte[] name = characterSet.getName().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(Integer.parseInt(characterSet.getIsoCode(), 16));
+            out.writeShort(name.length);
+            out.write(name);
+            List<AnselCodeTableParser.Code> codes = characterSet.getCodes();
+            out.writeInt(codes.size());
+            for (int code : GraphicSet.codes(codes)) {
+                out.writeInt(code);
+            }
+            for (char ch : GraphicSet.characters(codes)) {
+                out.writeChar(ch);
+            }
+        }
+        out.flush();
+        bytes.writeTo(outputStream);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A decoder whose loop works on the backing arrays of heap buffers.
+ *
+ * Direct and read-only buffers are staged in bulk through heap buffers of this decoder,
+ * so {@link #decodeArrays(ByteBuffer, CharBuffer)} is always called with buffers which
+ * have an accessible array.
+ */
+abstract class ArrayDecoder extends CharsetDecoder {
+
+    private static final int STAGE_SIZE = 4096;
+
+    private ByteBuffer byteStage;
+
+    private CharBuffer charStage;
+
+    /**
+     * The counters of the charset, null if counting is off.
+     */
+    final CharsetMetrics metrics;
+
+    /**
+     * The number of input bytes since the last reset.
+     */
+    private long consumed;
+
+    /**
+     * The offset of position zero of the input of the running {@link #decodeArrays(ByteBuffer, CharBuffer)}.
+     */
+    private long base;
+
+    private IntBuffer errors;
+
+    ArrayDecoder(Charset cs, float averageCharsPerByte, float maxCharsPerByte) {
+        super(cs, averageCharsPerByte, maxCharsPerByte);
+        this.metrics = CharsetMetrics.ENABLED ? CharsetMetrics.of(cs) : null;
+    }
+
+    /**
+     * Decode like {@link #decodeLoop(ByteBuffer, CharBuffer)}.
+     *
+     * @param in the input, {@code in.hasArray()} is true
+     * @param out the output, {@code out.hasArray()} is true
+     * @return the coder result
+     */
+    protected abstract CoderResult decodeArrays(ByteBuffer in, CharBuffer out);
+
+    /**
+     * Record malformed input and unmappable bytes, two ints per byte, the offset since the last
+     * reset and the unsigned byte value, as long as the buffer has room.
+     *
+     * @param errors the buffer, or null for not recording errors
+     */
+    void recordErrors(IntBuffer errors) {
+        this.errors = errors;
+    }
+
+    boolean recordsErrors() {
+        return errors != null;
+    }
+
+    /**
+     * Record a malformed or unmappable byte, if errors are recorded.
+     *
+     * @param offset the offset of the byte since the last reset
+     * @param b the unsigned byte value
+     */
+    void error(long offset, int b) {
+        if (errors != null && errors.remaining() >= 2) {
+            errors.put((int) offset).put(b);
+        }
+    }
+
+    /**
+     * Reset like {@link #implReset()}.
+     */
+    protected void resetState() {
+    }
+
+    /**
+     * The offset of the input position, for {@link #decodeArrays(ByteBuffer, CharBuffer)}.
+     *
+     * @param in the input of {@link #decodeArrays(ByteBuffer, CharBuffer)}
+     * @return the number of input bytes before the position since the last reset
+     */
+    long offset(ByteBuffer in) {
+        return base + in.position();
+    }
+
+    @Override
+    protected final CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+        return CharsetEvents.decode(this, in, out);
+    }
+
+    /**
+     * Decode like {@link #decodeLoop(ByteBuffer, CharBuffer)}, and count if counting is on.
+     */
+    CoderResult decodeCounted(ByteBuffer in, CharBuffer out) {
+        if (!CharsetMetrics.ENABLED) {
+            return decodeBuffers(in, out);
+        }
+        int inPosition = in.position();
+        int outPosition = out.position();
+        CoderResult result = decodeBuffers(in, out);
+        metrics.decoded(in.position() - inPosition, out.position() - outPosition, result);
+        if (result.isError() && (result.isMalformed() ? malformedInputAction() : unmappableCharacterAction())
+                == CodingErrorAction.REPLACE) {
+            metrics.replaced();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of input bytes since the last reset
+     */
+    long consumed() {
+        return consumed;
+    }
+
+    @Override
+    protected final void implReset() {
+        consumed = 0;
+        resetState();
+    }
+
+    /**
+     * Flush like {@link #implFlush(CharBuffer)}.
+     *
+     * @param out the output
+     * @return the coder result
+     */
+    protected CoderResult flushBuffer(CharBuffer out) {
+        return CoderResult.UNDERFLOW;
+    }
+
+    @Override
+    protected final CoderResult implFlush(CharBuffer out) {
+        if (!CharsetMetrics.ENABLED) {
+            return flushBuffer(out);
+        }
+        int outPosition = out.position();
+        CoderResult result = flushBuffer(out);
+        metrics.decoded(0, out.position() - outPosition, result);
+        return result;
+    }
+
+    private CoderResult decodeBuffers(ByteBuffer in, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            return decodeAt(in, out);
+        }
+        if (byteStage == null) {
+            byteStage = ByteBuffer.allocate(STAGE_SIZE);
+            charStage = CharBuffer.allocate(STAGE_SIZE);
+        }
+        while (true) {
+            int inPosition = in.position();
+            int outPosition = out.position();
+            ByteBuffer src = in;
+            if (!in.hasArray()) {
+                int length = Math.min(in.remaining(), STAGE_SIZE);
+                byteStage.clear();
+                in.get(byteStage.array(), 0, length);
+                in.position(inPosition);
+                byteStage.limit(length);
+                src = byteStage;
+            }
+            CharBuffer dst = out;
+            if (!out.hasArray()) {
+                charStage.clear();
+                charStage.limit(Math.min(out.remaining(), STAGE_SIZE));
+                dst = charStage;
+            }
+            CoderResult result = decodeAt(src, dst);
+            if (src != in) {
+                in.position(inPosition + src.position());
+            }
+            if (dst != out) {
+                charStage.flip();
+                out.put(charStage);
+            }
+            if (in.position() == inPosition && out.position() == outPosition) {
+                return result;
+            }
+            if (!(result.isUnderflow() && src != in && in.hasRemaining())
+                    && !(result.isOverflow() && dst != out && out.hasRemaining())) {
+                return result;
+            }
+        }
+    }
+
+    private CoderResult decodeAt(ByteBuffer in, CharBuffer out) {
+        base = consumed - in.position();
+        CoderResult result = decodeArrays(in, out);
+        consumed = base + in.position();
+        if (result.isError()) {
+            for (int i = 0; errors != null && i < result.length(); i++) {
+                error(consumed + i, in.get(in.position() + i) & 0xff);
+            }
+            // skipped by the caller before the next call
+            consumed += result.length();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An encoder whose loop works on the backing arrays of heap buffers.
+ *
+ * Direct and read-only buffers are staged in bulk through heap buffers of this encoder,
+ * so {@link #encodeArrays(CharBuffer, ByteBuffer)} is always called with buffers which
+ * have an accessible array.
+ */
+abstract class ArrayEncoder extends CharsetEncoder {
+
+    private static final int STAGE_SIZE = 4096;
+
+    private CharBuffer charStage;
+
+    private ByteBuffer byteStage;
+
+    /**
+     * The counters of the charset, null if counting is off.
+     */
+    final CharsetMetrics metrics;
+
+    ArrayEncoder(Charset cs, float averageBytesPerChar, float maxBytesPerChar) {
+        super(cs, averageBytesPerChar, maxBytesPerChar);
+        this.metrics = CharsetMetrics.ENABLED ? CharsetMetrics.of(cs) : null;
+    }
+
+    /**
+     * Encode like {@link #encodeLoop(CharBuffer, ByteBuffer)}.
+     *
+     * @param in the input, {@code in.hasArray()} is true
+     * @param out the output, {@code out.hasArray()} is true
+     * @return the coder result
+     */
+    protected abstract CoderResult encodeArrays(CharBuffer in, ByteBuffer out);
+
+    @Override
+    protected final CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+        if (!CharsetMetrics.ENABLED) {
+            return encodeBuffers(in, out);
+        }
+        int inPosition = in.position();
+        int outPosition = out.position();
+        CoderResult result = encodeBuffers(in, out);
+        metrics.encoded(in.position() - inPosition, out.position() - outPosition, result);
+        if (result.isError() && (result.isMalformed() ? malformedInputAction() : unmappableCharacterAction())
+                == CodingErrorAction.REPLACE) {
+            metrics.replaced();
+        }
+        return result;
+    }
+
+    /**
+     * Flush like {@link #implFlush(ByteBuffer)}.
+     *
+     * @param out the output
+     * @return the coder result
+     */
+    protected CoderResult flushBuffer(ByteBuffer out) {
+        return CoderResult.UNDERFLOW;
+    }
+
+    @Override
+    protected final CoderResult implFlush(ByteBuffer out) {
+        if (!CharsetMetrics.ENABLED) {
+            return flushBuffer(out);
+        }
+        int outPosition = out.position();
+        CoderResult result = flushBuffer(out);
+        metrics.encoded(0, out.position() - outPosition, result);
+        return result;
+    }
+
+    private CoderResult encodeBuffers(CharBuffer in, ByteBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            return encodeArrays(in, out);
+        }
+        if (charStage == null) {
+            charStage = CharBuffer.allocate(STAGE_SIZE);
+            byteStage = ByteBuffer.allocate(STAGE_SIZE);
+        }
+        while (true) {
+            int inPosition = in.position();
+            int outPosition = out.position();
+            CharBuffer src = in;
+            if (!in.hasArray()) {
+                int length = Math.min(in.remaining(), STAGE_SIZE);
+                charStage.clear();
+                in.get(charStage.array(), 0, length);
+                in.position(inPosition);
+                charStage.limit(length);
+                src = charStage;
+            }
+            ByteBuffer dst = out;
+            if (!out.hasArray()) {
+                byteStage.clear();
+                byteStage.limit(Math.min(out.remaining(), STAGE_SIZE));
+                dst = byteStage;
+            }
+            CoderResult result = encodeArrays(src, dst);
+            if (src != in) {
+                in.position(inPosition + src.position());
+            }
+            if (dst != out) {
+                byteStage.flip();
+                out.put(byteStage);
+            }
+            if (in.position() == inPosition && out.position() == outPosition) {
+                return result;
+            }
+            if (!(result.isUnderflow() && src != in && in.hasRemaining())
+                    && !(result.isOverflow() && dst != out && out.hasRemaining())) {
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Guesses the charset of unlabeled bibliographic data: ANSEL (MARC-8), ISO-5426 (MAB2),
+ * x-PICA, MAB-Diskette or UTF-8.
+ *
+ * One pass over sampled bytes counts each byte of 0x80 and above by whether its neighbours
+ * are ASCII letters, bytes from 0x80 to 0xBF, bytes from 0xC0 or anything else, and counts
+ * MARC-8 escape sequences. The counts are then scored against UTF-8, where lead bytes need a
+ * continuation byte after them, and against the decoding tables of each single-byte
+ * charset: undefined bytes count against a charset, combining characters should come before
+ * a base letter, precomposed letters should sit next to letters, and the DNB-internal bytes
+ * 0x80 to 0x85 of x-PICA should not sit inside words.
+ *
+ * Pure ASCII is valid in all of the charsets, and gets the same confidence for each of them.
+ */
+public final class BibliographicCharsetDetector {
+
+    private static final int UNDEFINED = 0;
+
+    private static final int MARK = 1;
+
+    private static final int LETTER = 2;
+
+    private static final int OTHER = 3;
+
+    private static final int PICA_INTERNAL = 4;
+
+    private static final int ASCII_LETTER = 0;
+
+    private static final int CONTINUATION = 1;
+
+    private static final int LEAD = 2;
+
+    private static final int NEITHER = 3;
+
+    private static final byte ESC = 0x1B;
+
+    private static final List<Charset> CHARSETS = List.of(StandardCharsets.UTF_8, BibliographicCharsets.ANSEL,
+            BibliographicCharsets.ISO5426, Charset.forName("x-PICA"), BibliographicCharsets.MAB_DISKETTE);
+
+    /**
+     * The class of each high byte, for each single-byte charset after UTF-8.
+     */
+    private static final byte[][] CLASSES = classes();
+
+    private static final int[] CONTEXT = context();
+
+    private final int windows;
+
+    private final int windowSize;
+
+    /**
+     * Create a detector which samples 8 windows of 64 KB from files.
+     */
+    public BibliographicCharsetDetector() {
+        this(8, 1 << 16);
+    }
+
+    /**
+     * Create a detector.
+     *
+     * @param windows the number of windows sampled from a file, spread evenly
+     * @param windowSize the size of a window in bytes
+     */
+    public BibliographicCharsetDetector(int windows, int windowSize) {
+        if (windows < 1 || windowSize < 1) {
+            throw new IllegalArgumentException("windows and window size must be positive");
+        }
+        this.windows = windows;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Detect the charset of bytes.
+     *
+     * @param bytes the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @return the charsets, most likely first, with confidences which add up to 1
+     */
+    public List<Match> detect(byte[] bytes, int off, int len) {
+        Objects.checkFromIndexSize(off, len, bytes.length);
+        Counts counts = new Counts();
+        counts.add(bytes, off, off + len);
+        return counts.matches();
+    }
+
+    /**
+     * Detect the charset of a file from sampled windows.
+     *
+     * @param path the file
+     * @return the charsets, most likely first, with confidences which add up to 1
+     * @throws IOException if the file can not be read
+     */
+    public List<Match> detect(Path path) throws IOException {
+        Counts counts = new Counts();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, windowSize));
+            long step = windows > 1 ? Math.max(windowSize, (size - windowSize) / (windows - 1)) : size;
+            for (long position = 0L; position < size; position += step) {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                    // fill the window
+                }
+                counts.add(buffer.array(), 0, buffer.position());
+            }
+        }
+        return counts.matches();
+    }
+
+    /**
+     * A charset and its confidence.
+     */
+    public static final class Match {
+
+        private final Charset charset;
+
+        private final double confidence;
+
+        Match(Charset charset, double confidence) {
+            this.charset = charset;
+            this.confidence = confidence;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        @Override
+        public String toString() {
+            return charset.name() + "=" + String.format("%.3f", confidence);
+        }
+    }
+
+    private static final class Counts {
+
+        /**
+         * High byte occurrences by byte and by the context of the previous and the next byte.
+         */
+        private final int[] high = new int[256 * 16];
+
+        private int escapes;
+
+        void add(byte[] bytes, int start, int end) {
+            int[] high = this.high;
+            for (int i = start; i < end; i++) {
+                int b = bytes[i];
+                if (b >= 0) {
+                    if (b == ESC && i + 1 < end && isEscapeFinal(bytes[i + 1])) {
+                        escapes++;
+                    }
+                    continue;
+                }
+                int prev = i > start ? CONTEXT[bytes[i - 1] & 0xFF] : NEITHER;
+                int next = i + 1 < end ? CONTEXT[bytes[i + 1] & 0xFF] : NEITHER;
+                high[(b & 0xFF) << 4 | prev << 2 | next]++;
+            }
+        }
+
+        List<Match> matches() {
+            double[] scores = new double[CHARSETS.size()];
+            int highBytes = 0;
+            for (int count : high) {
+                highBytes += count;
+            }
+            double total = Math.max(1, highBytes + escapes);
+            double utf8 = -4.0 * escapes;
+            for (int b = 0x80; b < 0x100; b++) {
+                for (int context = 0; context < 16; context++) {
+                    int count = high[b << 4 | context];
+                    if (count > 0) {
+                        utf8 += count * utf8Score(b, context >> 2, context & 3);
+                    }
+                }
+            }
+            scores[0] = utf8 / total;
+            for (int c = 1; c < scores.length; c++) {
+                byte[] classes = CLASSES[c - 1];
+                double score = c == 1 ? 4.0 * escapes : -4.0 * escapes;
+                for (int b = 0x80; b < 0x100; b++) {
+                    for (int context = 0; context < 16; context++) {
+                        int count = high[b << 4 | context];
+                        if (count > 0) {
+                            score += count * score(classes[b], context >> 2, context & 3);
+                        }
+                    }
+                }
+                scores[c] = score / total;
+            }
+            double sum = 0d;
+            double[] weights = new double[scores.length];
+            for (int c = 0; c < scores.length; c++) {
+                weights[c] = Math.exp(4.0 * scores[c]);
+                sum += weights[c];
+            }
+            List<Match> matches = new ArrayList<>(scores.length);
+            for (int c = 0; c < scores.length; c++) {
+                matches.add(new Match(CHARSETS.get(c), weights[c] / sum));
+            }
+            // stable, so ties keep the order of CHARSETS
+            matches.sort(Collections.reverseOrder((m1, m2) -> Double.compare(m1.confidence, m2.confidence)));
+            return matches;
+        }
+    }
+
+    private static double score(int cls, int prev, int next) {
+        boolean prevHigh = prev == CONTINUATION || prev == LEAD;
+        boolean nextHigh = next == CONTINUATION || next == LEAD;
+        switch (cls) {
+            case MARK:
+                // combining characters come before the base letter
+                return next == ASCII_LETTER ? 2.0 : nextHigh ? 0.5 : -2.0;
+            case LETTER:
+                return prev == ASCII_LETTER || next == ASCII_LETTER ? 1.0 : prevHigh || nextHigh ? 0.5 : 0.0;
+            case OTHER:
+                return prev == ASCII_LETTER && next == ASCII_LETTER ? -1.0 : 0.0;
+            case PICA_INTERNAL:
+                return prev == ASCII_LETTER && next == ASCII_LETTER ? -2.0 : 1.0;
+            default:
+                return -4.0;
+        }
+    }
+
+    /**
+     * Lead bytes need a continuation byte after them, continuation bytes need a lead or
+     * continuation byte before them. The number of continuation bytes is not checked.
+     */
+    private static double utf8Score(int b, int prev, int next) {
+        if (b < 0xC0) {
+            return prev == LEAD || prev == CONTINUATION ? 1.5 : -4.0;
+        }
+        if (b >= 0xC2 && b <= 0xF4) {
+            return next == CONTINUATION ? 1.5 : -4.0;
+        }
+        return -4.0;
+    }
+
+    private static boolean isEscapeFinal(byte b) {
+        // the intermediate characters of MARC-8 escape sequences, and the technique 1 finals
+        return b == '(' || b == ',' || b == '$' || b == ')' || b == '-' || b == '.'
+                || b == 'b' || b == 'g' || b == 'p' || b == 's';
+    }
+
+    private static int[] context() {
+        int[] context = new int[256];
+        for (int b = 0; b < 256; b++) {
+            context[b] = b >= 0xC0 ? LEAD : b >= 0x80 ? CONTINUATION : Character.isLetter(b) ? ASCII_LETTER : NEITHER;
+        }
+        return context;
+    }
+
+    /**
+     * Classify the high bytes of the single-byte charsets by decoding each of them before
+     * the letter a.
+     */
+    private static byte[][] classes() {
+        byte[][] classes = new byte[CHARSETS.size() - 1][];
+        for (int c = 1; c < CHARSETS.size(); c++) {
+            Charset charset = CHARSETS.get(c);
+            byte[] table = new byte[256];
+            for (int b = 0x80; b < 0x100; b++) {
+                table[b] = (byte) classify(charset, b);
+            }
+            if (charset.name().equals("x-PICA")) {
+                for (int b = 0x80; b <= 0x85; b++) {
+                    table[b] = PICA_INTERNAL;
+                }
+            }
+            classes[c - 1] = table;
+        }
+        return classes;
+    }
+
+    private static int classify(Charset charset, int b) {
+        String s;
+        try {
+            s = charset.newDecoder().decode(ByteBuffer.wrap(new byte[] { (byte) b, 'a' })).toString();
+        } catch (CharacterCodingException e) {
+            return UNDEFINED;
+        }
+        if (s.length() == 2 && s.charAt(1) == 'a') {
+            char ch = s.charAt(0);
+            if (Character.isLetter(ch)) {
+                return LETTER;
+            }
+            if (ch == '\uFFFD' || Character.getType(ch) == Character.CONTROL
+                    && ch != ISO5426.NICHTSORTIERBEGINNZEICHEN && ch != ISO5426.NICHTSORTIERENDEZEICHEN) {
+                return UNDEFINED;
+            }
+            return OTHER;
+        }
+        String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+        if (decomposed.length() > 1 && decomposed.charAt(0) == 'a'
+                && Character.getType(decomposed.charAt(1)) == Character.NON_SPACING_MARK) {
+            return MARK;
+        }
+        return OTHER;
+    }
+}
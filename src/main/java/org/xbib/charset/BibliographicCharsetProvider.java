@@ -31,53 +31,47 @@
  */
 package org.xbib.charset;
 
-import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
 import java.nio.charset.spi.CharsetProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Extra bibliographic character sets.
+ *
+ * The JDK creates a new provider for every lookup it can not answer from its own cache,
+ * so the registry is shared by all providers. It is immutable and can be read by any
+ * number of threads without locking. Each character set is created once, on first use.
  */
 public class BibliographicCharsetProvider extends CharsetProvider {
 
-    /**
-     * The reference to the character set instance.
-     * If there are no remaining references to this instance,
-     * the character set will be removed by the garbage collector.
-     */
-    private static final BibliographicCharsetProvider instance = new BibliographicCharsetProvider();
-
-    private final Map<String, String> classMap;
+    private static final String PACKAGE_PREFIX = BibliographicCharsetProvider.class.getPackage().getName();
 
-    private final Map<String, String> aliasMap;
+    private static final List<Registration> REGISTRATIONS = Arrays.asList(
+            new Registration("ANSEL", "AnselCharset",
+                    "ANSI_Z39_47", "ANSI-Z39-47", "Z39_47", "Z39-47", "ansel", "usmarc", "usm94"),
+            new Registration("ISO-5426", "ISO5426", "x-mab", "x-MAB", "ISO-5426", "ISO_5426", "ISO_5426:1983", "MAB2"),
+            new Registration("ISO-5428", "ISO5428", "ISO_5428", "ISO-5428:1984", "iso-ir-55"),
+            new Registration("MAB-Diskette", "MabDisketteCharset"),
+            new Registration("PICA", "Pica", "Pica", "pica"),
+            new Registration("x-PICA", "PicaCharset", "x-pica"),
+            new Registration("SIMPLE_ANSEL", "SimpleAnselCharset"));
 
-    private final Map<String, String[]> aliasNameMap;
-
-    private final Map<String, SoftReference<Charset>> cache;
-
-    private final String packagePrefix;
+    /**
+     * The registrations by canonical name and alias, as registered and in lower case.
+     */
+    private static final Map<String, Registration> REGISTRY = newRegistry();
 
     /**
-     * Constructor must be public bevause of ServiceLoader.
+     * Constructor must be public because of ServiceLoader.
      */
     public BibliographicCharsetProvider() {
-        classMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        aliasMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        aliasNameMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        cache = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        packagePrefix = getClass().getPackage().getName();
-
-        charset("ANSEL", "AnselCharset",
-                new String[]{"ANSI_Z39_47", "ANSI-Z39-47", "Z39_47", "Z39-47", "ansel", "usmarc", "usm94"});
-        charset("ISO-5426", "ISO5426", new String[]{"x-mab", "x-MAB", "ISO-5426", "ISO_5426", "ISO_5426:1983", "MAB2"});
-        charset("ISO-5428", "ISO5428", new String[]{"ISO_5428", "ISO-5428:1984", "iso-ir-55"});
-        charset("MAB-Diskette", "MabDisketteCharset", new String[]{});
-        charset("PICA", "Pica", new String[]{"Pica", "pica"});
-        charset("x-PICA", "PicaCharset", new String[]{"x-pica"});
-        charset("SIMPLE_ANSEL", "SimpleAnselCharset", new String[]{});
+        // the registry is static
     }
 
     /**
@@ -87,19 +81,25 @@ public class BibliographicCharsetProvider extends CharsetProvider {
      * @return an alias string array
      */
     static String[] aliasesFor(String charsetName) {
-        return instance.aliasNameMap.get(charsetName);
+        for (Registration registration : REGISTRATIONS) {
+            if (registration.name.equalsIgnoreCase(charsetName)) {
+                return registration.aliases;
+            }
+        }
+        return null;
     }
 
     @Override
     public final Charset charsetForName(String s) {
-        return lookup(canonicalize(s));
+        Registration registration = find(s);
+        return registration != null ? registration.charset() : null;
     }
 
     @Override
     public final Iterator<Charset> charsets() {
         return new Iterator<>() {
 
-            final Iterator<String> iterator = classMap.keySet().iterator();
+            final Iterator<Registration> iterator = REGISTRATIONS.iterator();
 
             @Override
             public boolean hasNext() {
@@ -108,7 +108,7 @@ public class BibliographicCharsetProvider extends CharsetProvider {
 
             @Override
             public Charset next() {
-                return lookup(iterator.next());
+                return iterator.next().charset();
             }
 
             @Override
@@ -118,38 +118,80 @@ public class BibliographicCharsetProvider extends CharsetProvider {
         };
     }
 
-    private void charset(String name, String className, String[] aliases) {
-        classMap.putIfAbsent(name, className);
-        for (String alias : aliases) {
-            aliasMap.putIfAbsent(alias, name);
+    private static Map<String, Registration> newRegistry() {
+        Map<String, Registration> registry = new HashMap<>();
+        for (Registration registration : REGISTRATIONS) {
+            register(registry, registration.name, registration);
+        }
+        for (Registration registration : REGISTRATIONS) {
+            for (String alias : registration.aliases) {
+                register(registry, alias, registration);
+            }
         }
-        aliasNameMap.putIfAbsent(name, aliases);
+        return Collections.unmodifiableMap(registry);
     }
 
-    private String canonicalize(String charsetName) {
-        String aliasCharsetName = aliasMap.get(charsetName);
-        return aliasCharsetName != null ? aliasCharsetName : charsetName;
+    private static void register(Map<String, Registration> registry, String name, Registration registration) {
+        registry.putIfAbsent(name, registration);
+        registry.putIfAbsent(name.toLowerCase(Locale.ROOT), registration);
     }
 
-    private Charset lookup(String charsetName) {
-        SoftReference<Charset> softreference = cache.get(charsetName);
-        if (softreference != null) {
-            Charset charset = softreference.get();
-            if (charset != null) {
-                return charset;
-            }
-        }
-        String className = classMap.get(charsetName);
-        if (className == null) {
+    /**
+     * Names are case insensitive. The exact name is tried first, so the usual spellings
+     * need no lower case copy.
+     */
+    private static Registration find(String charsetName) {
+        if (charsetName == null) {
             return null;
         }
-        try {
-            Class<?> cl = Class.forName(packagePrefix + "." + className, true, getClass().getClassLoader());
-            Charset charset = (Charset) cl.getDeclaredConstructor().newInstance();
-            cache.put(charsetName, new SoftReference<>(charset));
-            return charset;
-        } catch (Exception e) {
-            return null;
+        Registration registration = REGISTRY.get(charsetName);
+        return registration != null ? registration : REGISTRY.get(charsetName.toLowerCase(Locale.ROOT));
+    }
+
+    private static final class Registration {
+
+        private final String name;
+
+        private final String className;
+
+        private final String[] aliases;
+
+        private volatile Charset charset;
+
+        Registration(String name, String className, String... aliases) {
+            this.name = name;
+            this.className = className;
+            this.aliases = aliases;
+        }
+
+        /**
+         * Readers see the published character set with a single volatile read. Only the
+         * creation is guarded, so a character set is never created twice.
+         *
+         * @return the character set, or null if it can not be created
+         */
+        Charset charset() {
+            Charset cs = charset;
+            if (cs == null) {
+                synchronized (this) {
+                    cs = charset;
+                    if (cs == null) {
+                        cs = newCharset();
+                        charset = cs;
+                    }
+                }
+            }
+            return cs;
+        }
+
+        private Charset newCharset() {
+            try {
+                Class<?> cl = Class.forName(PACKAGE_PREFIX + "." + className, true,
+                        BibliographicCharsetProvider.class.getClassLoader());
+                return (Charset) cl.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                return null;
+            }
         }
     }
 }
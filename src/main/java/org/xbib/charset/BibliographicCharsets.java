@@ -31,10 +31,19 @@
  */
 package org.xbib.charset;
 
+import java.nio.IntBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Objects;
 
 /**
+ * The bibliographic charsets, and decode and encode methods on arrays.
  *
+ * The array methods reuse pooled decoders, encoders and staging buffers, so decoding
+ * many short fields, e.g. MARC subfields, allocates nothing once the pool has seen the
+ * charset. They replace malformed input and unmappable characters, like
+ * {@link String#String(byte[], Charset)} does.
  */
 public final class BibliographicCharsets {
 
@@ -49,4 +58,157 @@ public final class BibliographicCharsets {
     public static final Charset MAB_DISKETTE = Charset.forName("MAB-DISKETTE");
 
     public static final Charset PICA = Charset.forName("Pica");
+
+    /**
+     * The system property which switches on counting in the decoders and encoders, with a
+     * {@link CharsetMetricsMXBean} per charset, e.g. {@code -Dorg.xbib.charset.metrics=true}.
+     */
+    public static final String METRICS_PROPERTY = "org.xbib.charset.metrics";
+
+    /**
+     * Decode bytes into a char array.
+     *
+     * @param charset the charset
+     * @param src the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param dst the char array
+     * @param dstOff the offset of the first char in the char array
+     * @return the number of chars written
+     * @throws IndexOutOfBoundsException if a range is out of bounds or the char array is too small,
+     * {@code len * charset.newDecoder().maxCharsPerByte()} chars are always enough
+     */
+    public static int decode(Charset charset, byte[] src, int off, int len, char[] dst, int dstOff) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.decode(charset, src, off, len, dst, dstOff);
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    /**
+     * Decode bytes into a char array leniently, replacing malformed input and unmappable bytes,
+     * and record each of these bytes in a buffer for data quality reports.
+     *
+     * A byte is recorded as two ints, its index in the byte array and its unsigned value. Bytes
+     * which do not fit into the remaining ints of the buffer are not recorded, so a full buffer
+     * may mean that errors are missing.
+     *
+     * @param charset the charset
+     * @param src the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param dst the char array
+     * @param dstOff the offset of the first char in the char array
+     * @param errors the buffer for the malformed and unmappable bytes
+     * @return the number of chars written
+     * @throws IndexOutOfBoundsException if a range is out of bounds or the char array is too small
+     * @throws IllegalArgumentException if the charset is not a charset of this package
+     */
+    public static int decode(Charset charset, byte[] src, int off, int len, char[] dst, int dstOff, IntBuffer errors) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.decode(charset, src, off, len, dst, dstOff, errors);
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    /**
+     * Create a lenient decoder, which replaces malformed input and unmappable bytes and records
+     * each of these bytes in a buffer, as two ints, its offset since the last reset of the decoder
+     * and its unsigned value, as long as the buffer has room.
+     *
+     * @param charset the charset
+     * @param errors the buffer for the malformed and unmappable bytes
+     * @return the decoder
+     * @throws IllegalArgumentException if the charset is not a charset of this package
+     */
+    public static CharsetDecoder newLenientDecoder(Charset charset, IntBuffer errors) {
+        CharsetDecoder decoder = charset.newDecoder();
+        if (!(decoder instanceof ArrayDecoder)) {
+            throw new IllegalArgumentException("no error recording for " + charset.name());
+        }
+        ((ArrayDecoder) decoder).recordErrors(Objects.requireNonNull(errors));
+        return decoder.onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Decode bytes into a string.
+     *
+     * @param charset the charset
+     * @param src the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @return the string
+     */
+    public static String decodeToString(Charset charset, byte[] src, int off, int len) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.decodeToString(charset, src, off, len);
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    /**
+     * Encode chars into a byte array.
+     *
+     * @param charset the charset
+     * @param src the chars
+     * @param off the offset of the first char
+     * @param len the number of chars
+     * @param dst the byte array
+     * @param dstOff the offset of the first byte in the byte array
+     * @return the number of bytes written
+     * @throws IndexOutOfBoundsException if a range is out of bounds or the byte array is too small
+     * @throws UnsupportedOperationException if the charset does not support encoding
+     */
+    public static int encode(Charset charset, char[] src, int off, int len, byte[] dst, int dstOff) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.encode(charset, src, off, len, dst, dstOff);
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    /**
+     * Encode a string into a byte array.
+     *
+     * @param charset the charset
+     * @param src the string
+     * @param dst the byte array
+     * @param dstOff the offset of the first byte in the byte array
+     * @return the number of bytes written
+     * @throws IndexOutOfBoundsException if the offset is out of bounds or the byte array is too small
+     * @throws UnsupportedOperationException if the charset does not support encoding
+     */
+    public static int encode(Charset charset, String src, byte[] dst, int dstOff) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.encode(charset, src, dst, dstOff);
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    /**
+     * Encode a string into a new byte array.
+     *
+     * @param charset the charset
+     * @param src the string
+     * @return the bytes
+     * @throws UnsupportedOperationException if the charset does not support encoding
+     */
+    public static byte[] encodeToBytes(Charset charset, String src) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.encodeToBytes(charset, src);
+        } finally {
+            Coders.release(coders);
+        }
+    }
 }
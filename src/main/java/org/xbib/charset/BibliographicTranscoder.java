@@ -0,0 +1,298 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Transcodes large files of records from one charset to another on several cores.
+ *
+ * The input is split into chunks of about {@link #getChunkSize()} bytes which end at record
+ * terminators (0x1D). The coders are reset at each record terminator, so escape sequences and
+ * combining characters do not span records, and the chunks are transcoded independently on a
+ * {@link ForkJoinPool}, and written in the order of the input. The output does not depend on the
+ * chunk size. A record longer than the chunk size becomes a chunk of its own. Streams are read into
+ * buffers of at most 1 GB, a record longer than that is split.
+ *
+ * Files are read through memory-mapped windows of 1 GB which also end at record terminators,
+ * so files larger than 2 GB work, and no escape sequence or combining character sequence is
+ * split. Only a record longer than 2 GB is split.
+ *
+ * Malformed input and unmappable characters are replaced, like {@link String#String(byte[], Charset)}
+ * and {@link String#getBytes(Charset)} do. A transcoder is immutable and can be shared.
+ */
+public final class BibliographicTranscoder {
+
+    public static final byte RECORD_TERMINATOR = 0x1D;
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int chunkSize;
+
+    private final int parallelism;
+
+    private final int windowSize;
+
+    /**
+     * Create a transcoder with chunks of 4 MB and one thread per processor.
+     */
+    public BibliographicTranscoder() {
+        this(DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a transcoder.
+     *
+     * @param chunkSize the chunk size in bytes
+     * @param parallelism the number of threads
+     */
+    public BibliographicTranscoder(int chunkSize, int parallelism) {
+        this(chunkSize, parallelism, WINDOW_SIZE);
+    }
+
+    BibliographicTranscoder(int chunkSize, int parallelism, int windowSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.windowSize = Math.max(windowSize, chunkSize);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Transcode a stream. The streams are not closed.
+     *
+     * @param in the input
+     * @param from the charset of the input
+     * @param out the output
+     * @param to the charset of the output
+     * @return the number of bytes written
+     * @throws IOException if reading or writing fails
+     * @throws UnsupportedOperationException if the output charset does not support encoding
+     */
+    public long transcode(InputStream in, Charset from, OutputStream out, Charset to) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // a bounded number of chunks in flight, the reader waits for the oldest one
+            Deque<ForkJoinTask<ByteBuffer>> tasks = new ArrayDeque<>();
+            long written = 0L;
+            byte[] buffer = new byte[chunkSize];
+            int length = 0;
+            boolean eof = false;
+            while (true) {
+                while (length < buffer.length && !eof) {
+                    int n = in.read(buffer, length, buffer.length - length);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        length += n;
+                    }
+                }
+                if (length == 0) {
+                    break;
+                }
+                int end = eof ? length : lastRecordEnd(buffer, length);
+                if (end == 0) {
+                    if (buffer.length < windowSize) {
+                        buffer = Arrays.copyOf(buffer, (int) Math.min(2L * buffer.length, windowSize));
+                        continue;
+                    }
+                    // a record longer than a window, e.g. input without record terminators, split it
+                    end = length;
+                }
+                if (tasks.size() == 2 * parallelism) {
+                    written += write(tasks.removeFirst(), out);
+                }
+                byte[] chunk = buffer;
+                int chunkLength = end;
+                tasks.addLast(pool.submit(() -> transcode(from, ByteBuffer.wrap(chunk, 0, chunkLength), to)));
+                buffer = new byte[Math.max(chunkSize, length - end)];
+                System.arraycopy(chunk, end, buffer, 0, length - end);
+                length -= end;
+            }
+            while (!tasks.isEmpty()) {
+                written += write(tasks.removeFirst(), out);
+            }
+            return written;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Transcode a file. The output file is created or replaced.
+     *
+     * @param in the input file
+     * @param from the charset of the input
+     * @param out the output file
+     * @param to the charset of the output
+     * @return the number of bytes written
+     * @throws IOException if reading or writing fails
+     * @throws UnsupportedOperationException if the output charset does not support encoding
+     */
+    public long transcode(Path in, Charset from, Path out, Charset to) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            Deque<ForkJoinTask<ByteBuffer>> tasks = new ArrayDeque<>();
+            long written = 0L;
+            long size = input.size();
+            long position = 0L;
+            int mapSize = windowSize;
+            while (position < size) {
+                int length = (int) Math.min(size - position, mapSize);
+                boolean eof = position + length == size;
+                MappedByteBuffer window = input.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int start = 0;
+                while (start < length) {
+                    int end = chunkEnd(window, start, length);
+                    if (end == 0) {
+                        if (!eof) {
+                            // the rest of the window goes into the next one
+                            break;
+                        }
+                        end = length;
+                    }
+                    if (tasks.size() == 2 * parallelism) {
+                        written += write(tasks.removeFirst(), output);
+                    }
+                    ByteBuffer chunk = window.duplicate().limit(end).position(start);
+                    tasks.addLast(pool.submit(() -> transcode(from, chunk, to)));
+                    start = end;
+                }
+                if (start == 0 && length < MAX_WINDOW_SIZE) {
+                    // no record terminator in the whole window
+                    mapSize = (int) Math.min(2L * length, MAX_WINDOW_SIZE);
+                    continue;
+                }
+                if (start == 0) {
+                    // a record longer than the largest window, split it
+                    if (tasks.size() == 2 * parallelism) {
+                        written += write(tasks.removeFirst(), output);
+                    }
+                    tasks.addLast(pool.submit(() -> transcode(from, window, to)));
+                    start = length;
+                }
+                position += start;
+                mapSize = windowSize;
+            }
+            while (!tasks.isEmpty()) {
+                written += write(tasks.removeFirst(), output);
+            }
+            return written;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The end of a chunk of about the chunk size which ends with a record terminator.
+     *
+     * @return the end, or 0 if there is no record terminator after the start
+     */
+    private int chunkEnd(ByteBuffer window, int start, int length) {
+        int limit = (int) Math.min((long) start + chunkSize, length);
+        for (int i = limit - 1; i >= start; i--) {
+            if (window.get(i) == RECORD_TERMINATOR) {
+                return i + 1;
+            }
+        }
+        for (int i = limit; i < length; i++) {
+            if (window.get(i) == RECORD_TERMINATOR) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int lastRecordEnd(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == RECORD_TERMINATOR) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer transcode(Charset from, ByteBuffer chunk, Charset to) {
+        Coders coders = Coders.borrow();
+        try {
+            return coders.transcode(from, chunk, to);
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    private static int write(ForkJoinTask<ByteBuffer> task, OutputStream out) throws IOException {
+        ByteBuffer bytes = task.join();
+        out.write(bytes.array(), bytes.position(), bytes.remaining());
+        return bytes.remaining();
+    }
+
+    private static int write(ForkJoinTask<ByteBuffer> task, FileChannel out) throws IOException {
+        ByteBuffer bytes = task.join();
+        int n = bytes.remaining();
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        return n;
+    }
+}
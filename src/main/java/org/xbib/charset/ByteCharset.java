@@ -128,6 +128,7 @@ abstract class ByteCharset extends Charset {
      */
     private static final char NONE = (char) 0xFFFD;
     char[] lookupTable;
+    private byte[][] encodingTable;
 
     ByteCharset(String canonicalName, String[] aliases) {
         super(canonicalName, aliases);
@@ -145,6 +146,32 @@ abstract class ByteCharset extends Charset {
         return lookupTable;
     }
 
+    /**
+     * The inverse of the look-up table, paged by the high byte of the character and
+     * built once per charset. If several bytes decode to the same character, the byte
+     * decoding to its own value wins, otherwise the last one.
+     */
+    private synchronized byte[][] getEncodingTable() {
+        if (encodingTable == null) {
+            byte[][] pages = new byte[256][];
+            for (int i = 0; i < lookupTable.length; i++) {
+                int c = lookupTable[i];
+                if (c != 0 && c < NONE) {
+                    byte[] page = pages[c >>> 8];
+                    if (page == null) {
+                        page = new byte[256];
+                        pages[c >>> 8] = page;
+                    }
+                    if ((page[c & 0xFF] & 0xFF) != c) {
+                        page[c & 0xFF] = (byte) i;
+                    }
+                }
+            }
+            encodingTable = pages;
+        }
+        return encodingTable;
+    }
+
     public CharsetDecoder newDecoder() {
         return new Decoder(this);
     }
@@ -153,67 +180,96 @@ abstract class ByteCharset extends Charset {
         return new Encoder(this);
     }
 
-    private static final class Decoder extends CharsetDecoder {
+    private static final class Decoder extends ArrayDecoder {
 
         private final char[] lookup;
 
+        private final boolean ascii;
+
         Decoder(ByteCharset cs) {
             super(cs, 1.0f, 1.0f);
             lookup = cs.getLookupTable();
-        }
-
-        protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
-            while (in.hasRemaining()) {
-                byte b = in.get();
-                char c;
-                if (!out.hasRemaining()) {
-                    in.position(in.position() - 1);
-                    return CoderResult.OVERFLOW;
-                }
-                c = lookup[b & 0xFF];
-                out.put(c);
+            int i = 0;
+            while (i < 0x80 && lookup[i] == i) {
+                i++;
             }
+            ascii = i == 0x80;
+        }
 
-            return CoderResult.UNDERFLOW;
+        protected CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
+            int length = Math.min(in.remaining(), out.remaining());
+            ByteTable.decode(in.array(), in.arrayOffset() + in.position(),
+                    out.array(), out.arrayOffset() + out.position(), length, lookup, ascii);
+            in.position(in.position() + length);
+            out.position(out.position() + length);
+            return in.hasRemaining() ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
         }
     }
 
-    private static final class Encoder extends CharsetEncoder {
+    private static final class Encoder extends ArrayEncoder {
+
+        private final byte[][] lookup;
 
-        private final byte[] lookup;
+        private final boolean ascii;
 
         Encoder(ByteCharset cs) {
             super(cs, 1.0f, 1.0f);
-            char[] lookuptable = cs.getLookupTable();
-            int max = 0;
-            for (char ch : lookuptable) {
-                max = (int) ch > max && (int) ch < NONE ? (int) ch : max;
-            }
-            lookup = new byte[max + 1];
-            for (int i = 0; i < lookuptable.length; i++) {
-                int c = lookuptable[i];
-                if (c != 0 && c < NONE) {
-                    lookup[c] = (byte) i;
-                }
+            lookup = cs.getEncodingTable();
+            int i = 1;
+            while (i < 0x80 && lookup[0] != null && lookup[0][i] == i) {
+                i++;
             }
+            ascii = i == 0x80;
         }
 
-        protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
-            while (in.hasRemaining()) {
-                int c = in.get();
-                if (!out.hasRemaining()) {
-                    in.position(in.position() - 1);
-                    return CoderResult.OVERFLOW;
-                }
-                byte b = c < lookup.length ? lookup[c] : (byte) 0;
-                if ((int) b != 0 || c == 0) {
-                    out.put(b);
-                } else {
-                    in.position(in.position() - 1);
-                    return CoderResult.unmappableForLength(1);
+        protected CoderResult encodeArrays(CharBuffer in, ByteBuffer out) {
+            char[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            int sl = in.arrayOffset() + in.limit();
+            byte[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int dl = out.arrayOffset() + out.limit();
+            try {
+                while (sp < sl) {
+                    if (ascii) {
+                        int n = Math.min(sl - sp, dl - dp);
+                        int i = 0;
+                        while (i < n && src[sp + i] < 0x80) {
+                            dst[dp + i] = (byte) src[sp + i];
+                            i++;
+                        }
+                        sp += i;
+                        dp += i;
+                        if (sp == sl) {
+                            break;
+                        }
+                    }
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    char c = src[sp];
+                    byte[] page = lookup[c >>> 8];
+                    byte b = page != null ? page[c & 0xFF] : (byte) 0;
+                    if ((int) b == 0 && c != 0) {
+                        if (Character.isHighSurrogate(c)) {
+                            if (sl - sp < 2) {
+                                return CoderResult.UNDERFLOW;
+                            }
+                            if (Character.isLowSurrogate(src[sp + 1])) {
+                                return CoderResult.unmappableForLength(2);
+                            }
+                        }
+                        return Character.isSurrogate(c) ? CoderResult.malformedForLength(1) :
+                                CoderResult.unmappableForLength(1);
+                    }
+                    dst[dp++] = b;
+                    sp++;
                 }
+                return CoderResult.UNDERFLOW;
+            } finally {
+                in.position(sp - in.arrayOffset());
+                out.position(dp - out.arrayOffset());
             }
-            return CoderResult.UNDERFLOW;
         }
     }
 }
@@ -0,0 +1,60 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+/**
+ * Bulk table look-up for single-byte decoders on heap buffers. On Java 21, the
+ * multi-release JAR replaces this class with one that uses the Vector API if the
+ * {@code jdk.incubator.vector} module is present.
+ */
+final class ByteTable {
+
+    private ByteTable() {
+    }
+
+    /**
+     * Decode bytes to characters by table look-up.
+     *
+     * @param src    the bytes
+     * @param sp     the first byte
+     * @param dst    the characters
+     * @param dp     the first character
+     * @param length the number of bytes to decode
+     * @param lookup the look-up table, 256 characters
+     * @param ascii  true if the look-up table maps 0x00-0x7F to themselves
+     */
+    static void decode(byte[] src, int sp, char[] dst, int dp, int length, char[] lookup, boolean ascii) {
+        for (int i = 0; i < length; i++) {
+            dst[dp + i] = lookup[src[sp + i] & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transcodes bytes of one bibliographic charset straight into bytes of another charset,
+ * e.g. ISO-5426 to x-PICA or ISO-5426 to ANSEL, without decoding to a string first.
+ *
+ * The tables are generated from the existing charsets: every byte, and every combining byte
+ * followed by a base byte, is decoded and encoded once, and the result of up to three bytes is
+ * kept. This takes some 50 ms per pair of charsets. The output is the same as the output of
+ * decoding and encoding, but a byte or a pair of bytes costs a table lookup. Clusters with more
+ * than one combining byte, characters which need escape sequences in the target charset, and
+ * ANSEL input from an escape sequence up to the return to Basic and Extended Latin take the
+ * Unicode path. For ANSEL as the target charset, the escape sequences around these runs may
+ * differ from those of the Unicode path, the decoded text is the same.
+ *
+ * {@link #toUtf8(Charset)} writes UTF-8 in Unicode Normalization Form C, for indexing without
+ * decoding to strings and encoding them again.
+ *
+ * Malformed input and unmappable characters are replaced, like {@link String#String(byte[], Charset)}
+ * and {@link String#getBytes(Charset)} do. A transcoder is immutable and can be shared.
+ */
+public final class ByteTranscoder {
+
+    private static final Map<List<Object>, ByteTranscoder> TRANSCODERS = new ConcurrentHashMap<>();
+
+    private static final int ESC = 0x1B;
+
+    /**
+     * Table entries for clusters which take the Unicode path.
+     */
+    private static final int FALLBACK = -1;
+
+    private static final int MAX_DIRECT_LENGTH = 3;
+
+    private final Charset source;
+
+    private final Charset target;
+
+    private final boolean compose;
+
+    /**
+     * The source charset if it has escape sequences, else null.
+     */
+    private final AnselCharset ansel;
+
+    /**
+     * The output of a base byte, up to three bytes in the low bits and the length in the high byte.
+     */
+    private final int[] bases;
+
+    /**
+     * The outputs of combining bytes followed by a base byte, null for base bytes.
+     */
+    private final int[][] clusters;
+
+    private final int maxBytesPerByte;
+
+    private ByteTranscoder(Charset source, Charset target, boolean compose) {
+        if (!(source instanceof ISO5426 || source instanceof PicaCharset
+                || source instanceof AnselCharset || source instanceof ByteCharset)) {
+            throw new IllegalArgumentException("no byte tables for " + source.name());
+        }
+        CharsetEncoder encoder = target.canEncode() ? target.newEncoder() : null;
+        if (encoder == null) {
+            throw new UnsupportedOperationException(target.name() + " does not support encoding");
+        }
+        this.source = source;
+        this.target = target;
+        this.compose = compose;
+        this.ansel = source instanceof AnselCharset ? (AnselCharset) source : null;
+        this.bases = new int[256];
+        this.clusters = new int[256][];
+        Coders coders = Coders.borrow();
+        try {
+            byte[] buffer = new byte[64];
+            for (int b = 0; b < 256; b++) {
+                bases[b] = isEscape(b) ? FALLBACK : entry(coders, new byte[] { (byte) b }, buffer);
+            }
+            for (int b = 0; b < 256; b++) {
+                if (isCombining(coders, b)) {
+                    clusters[b] = new int[256];
+                }
+            }
+            for (int b = 0; b < 256; b++) {
+                if (clusters[b] != null) {
+                    for (int next = 0; next < 256; next++) {
+                        clusters[b][next] = isEscape(next) || clusters[next] != null ?
+                                FALLBACK : entry(coders, new byte[] { (byte) b, (byte) next }, buffer);
+                    }
+                }
+            }
+        } finally {
+            Coders.release(coders);
+        }
+        this.maxBytesPerByte = (int) Math.max(MAX_DIRECT_LENGTH,
+                Math.ceil(source.newDecoder().maxCharsPerByte() * encoder.maxBytesPerChar()));
+    }
+
+    /**
+     * Get the transcoder for two charsets. Transcoders are created once and cached.
+     *
+     * @param source the charset of the input, ISO-5426, x-PICA, ANSEL, MAB-Diskette or Pica
+     * @param target the charset of the output
+     * @return the transcoder
+     * @throws IllegalArgumentException if there are no byte tables for the input charset
+     * @throws UnsupportedOperationException if the output charset does not support encoding
+     */
+    public static ByteTranscoder of(Charset source, Charset target) {
+        return of(source, target, false);
+    }
+
+    /**
+     * Get the transcoder from a charset to UTF-8 in Normalization Form C. Transcoders are created
+     * once and cached. A byte may take up to three bytes in UTF-8, size outputs with
+     * {@link #maxLength(int)} for the input length, or expect a {@link BufferOverflowException}
+     * from {@link #transcode(ByteBuffer, ByteBuffer)} if the result does not fit.
+     *
+     * @param source the charset of the input, ISO-5426, x-PICA, ANSEL, MAB-Diskette or Pica
+     * @return the transcoder
+     * @throws IllegalArgumentException if there are no byte tables for the input charset
+     */
+    public static ByteTranscoder toUtf8(Charset source) {
+        return of(source, StandardCharsets.UTF_8, true);
+    }
+
+    private static ByteTranscoder of(Charset source, Charset target, boolean compose) {
+        List<Object> key = List.of(source, target, compose);
+        ByteTranscoder transcoder = TRANSCODERS.get(key);
+        return transcoder != null ? transcoder :
+                TRANSCODERS.computeIfAbsent(key, k -> new ByteTranscoder(source, target, compose));
+    }
+
+    public Charset getSourceCharset() {
+        return source;
+    }
+
+    public Charset getTargetCharset() {
+        return target;
+    }
+
+    /**
+     * The maximum number of bytes written for an input length.
+     *
+     * @param len the input length
+     * @return the size of an output array that is large enough for any input of this length
+     */
+    public int maxLength(int len) {
+        return Math.toIntExact((len + 1L) * maxBytesPerByte);
+    }
+
+    /**
+     * Transcode bytes into a new array.
+     *
+     * @param src the input
+     * @param off the input offset
+     * @param len the input length
+     * @return the output
+     */
+    public byte[] transcode(byte[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        byte[] dst = new byte[maxLength(len)];
+        return Arrays.copyOf(dst, transcode(src, off, len, dst, 0));
+    }
+
+    /**
+     * Transcode the remaining bytes of a buffer, e.g. a record, into another buffer. The position
+     * of the input advances to its limit, the position of the output by the number of bytes written.
+     * Buffers with accessible arrays are transcoded in place, others through pooled scratch arrays.
+     * An output with {@link #maxLength(int)} bytes remaining is always large enough, a smaller one
+     * is enough if the result fits.
+     *
+     * @param src the input
+     * @param dst the output
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the result does not fit into the output, the positions
+     * of both buffers are unchanged then
+     */
+    public int transcode(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        boolean fits = dst.remaining() >= maxLength(len);
+        if (fits && src.hasArray() && dst.hasArray()) {
+            int n = transcode(src.array(), src.arrayOffset() + src.position(), len,
+                    dst.array(), dst.arrayOffset() + dst.position());
+            src.position(src.limit());
+            dst.position(dst.position() + n);
+            return n;
+        }
+        Coders coders = Coders.borrow();
+        try {
+            byte[] input;
+            int off;
+            if (src.hasArray()) {
+                input = src.array();
+                off = src.arrayOffset() + src.position();
+            } else {
+                int position = src.position();
+                input = coders.source(len);
+                off = 0;
+                src.get(input, 0, len).position(position);
+            }
+            boolean inPlace = fits && dst.hasArray();
+            byte[] output = inPlace ? dst.array() : coders.target(maxLength(len));
+            int n = transcode(input, off, len, output, inPlace ? dst.arrayOffset() + dst.position() : 0);
+            if (n > dst.remaining()) {
+                throw new BufferOverflowException();
+            }
+            if (inPlace) {
+                dst.position(dst.position() + n);
+            } else {
+                dst.put(output, 0, n);
+            }
+            src.position(src.limit());
+            return n;
+        } finally {
+            Coders.release(coders);
+        }
+    }
+
+    /**
+     * Transcode bytes into an array.
+     *
+     * @param src the input
+     * @param off the input offset
+     * @param len the input length
+     * @param dst the output, {@link #maxLength(int)} is always large enough
+     * @param dstOff the output offset
+     * @return the number of bytes written
+     * @throws IndexOutOfBoundsException if the output array is too small
+     */
+    public int transcode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        Objects.checkFromIndexSize(dstOff, 0, dst.length);
+        int sp = off;
+        int end = off + len;
+        int dp = dstOff;
+        int previous = sp;
+        int previousDp = dp;
+        while (sp < end) {
+            int b = src[sp] & 0xff;
+            int[] row = clusters[b];
+            int code;
+            int n;
+            if (row == null) {
+                code = bases[b];
+                n = 1;
+            } else if (sp + 1 < end) {
+                code = row[src[sp + 1] & 0xff];
+                n = 2;
+            } else {
+                code = FALLBACK;
+                n = 1;
+            }
+            if (code >= 0) {
+                int length = code >>> 24;
+                if (dst.length - dp < length) {
+                    throw new IndexOutOfBoundsException("output array too small");
+                }
+                for (int i = 0; i < length; i++) {
+                    dst[dp++] = (byte) (code >>> (i << 3));
+                }
+                previous = sp;
+                previousDp = dp - length;
+                sp += n;
+            } else {
+                // the preceding cluster too, an encoder attaches a combining character without
+                // a base character to it
+                int start = previous;
+                dp = previousDp;
+                sp = fallbackEnd(src, sp, end);
+                Coders coders = Coders.borrow();
+                try {
+                    dp += coders.transcode(source, src, start, sp - start, target, dst, dp, compose);
+                } finally {
+                    Coders.release(coders);
+                }
+            }
+        }
+        return dp - dstOff;
+    }
+
+    /**
+     * Find the end of a run of clusters which take the Unicode path. The run ends before the
+     * next cluster with a table entry, escape sequences extend it up to the escape sequence which
+     * returns to the initial state.
+     */
+    private int fallbackEnd(byte[] src, int sp, int end) {
+        while (sp < end) {
+            int b = src[sp] & 0xff;
+            int p = sp;
+            while (p < end && clusters[src[p] & 0xff] != null) {
+                p++;
+            }
+            if (p < end && isEscape(src[p] & 0xff)) {
+                sp = ansel.initialStateAfterEscape(src, sp, end);
+                continue;
+            }
+            int cluster = Math.min(p + 1, end);
+            boolean direct = clusters[b] == null ? bases[b] >= 0 :
+                    p == sp + 1 && p < end && clusters[b][src[p] & 0xff] >= 0;
+            if (direct) {
+                return sp;
+            }
+            sp = cluster;
+        }
+        return end;
+    }
+
+    /**
+     * A byte is combining if it changes the decoding of the following letter, or if it decodes
+     * to nothing on its own, like a combining byte without a mapping.
+     */
+    private boolean isCombining(Coders coders, int b) {
+        String s = coders.decodeToString(source, new byte[] { (byte) b }, 0, 1);
+        return !isEscape(b) && (s.isEmpty() || !coders.decodeToString(source, new byte[] { (byte) b, 'a' }, 0, 2)
+                .equals(s + 'a'));
+    }
+
+    private boolean isEscape(int b) {
+        return b == ESC && ansel != null;
+    }
+
+    private int entry(Coders coders, byte[] cluster, byte[] buffer) {
+        String s = coders.decodeToString(source, cluster, 0, cluster.length);
+        if (compose) {
+            s = Normalizer.normalize(s, Normalizer.Form.NFC);
+        }
+        if (!s.isEmpty() && isMark(s.charAt(0))) {
+            return FALLBACK;
+        }
+        int length = coders.encode(target, s, buffer, 0);
+        if (length > MAX_DIRECT_LENGTH) {
+            return FALLBACK;
+        }
+        int code = length << 24;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == ESC) {
+                return FALLBACK;
+            }
+            code |= (buffer[i] & 0xff) << (i << 3);
+        }
+        return code;
+    }
+
+    private static boolean isMark(char ch) {
+        int type = Character.getType(ch);
+        return type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+}
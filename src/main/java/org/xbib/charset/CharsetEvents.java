@@ -0,0 +1,102 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+
+/**
+ * JDK Flight Recorder events of the decoders, for finding the records which make decoding slow
+ * or go wrong in a recording of a production system.
+ *
+ * The events are enabled by default when a recording runs, the threshold of slow decodes can be set
+ * in the recording settings, e.g. {@code org.xbib.charset.SlowDecode#threshold=1 ms}. Offsets count
+ * the input bytes since the last reset of the decoder.
+ *
+ * The module {@code jdk.jfr} is optional. Without it, e.g. in a jlink image, there are no events, and
+ * {@link FlightRecorderEvents}, which uses the {@code jdk.jfr} API, is never loaded.
+ */
+final class CharsetEvents {
+
+    /**
+     * True if the module {@code jdk.jfr} is present and readable.
+     */
+    static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr")
+            .map(CharsetEvents.class.getModule()::canRead)
+            .orElse(false);
+
+    private CharsetEvents() {
+    }
+
+    /**
+     * Decode, and emit a slow decode event if enabled and over the threshold.
+     *
+     * @param decoder the decoder
+     * @param in the input
+     * @param out the output
+     * @return the coder result
+     */
+    static CoderResult decode(ArrayDecoder decoder, ByteBuffer in, CharBuffer out) {
+        return AVAILABLE ? FlightRecorderEvents.decode(decoder, in, out) : decoder.decodeCounted(in, out);
+    }
+
+    /**
+     * Emit a decoder rollback event if enabled.
+     *
+     * @param charset the charset
+     * @param offset the offset of the byte given back
+     * @param combining the number of combining bytes waiting for their base byte
+     * @param malformed true if the combining bytes are too many, false if the output is full
+     */
+    static void rollback(Charset charset, long offset, int combining, boolean malformed) {
+        if (AVAILABLE) {
+            FlightRecorderEvents.rollback(charset, offset, combining, malformed);
+        }
+    }
+
+    /**
+     * Emit an unknown escape sequence event if enabled.
+     *
+     * @param charset the charset
+     * @param offset the offset of the escape character
+     * @param src the input
+     * @param sp the position after the escape character
+     * @param length the length of the escape sequence after the escape character
+     */
+    static void unknownEscape(Charset charset, long offset, byte[] src, int sp, int length) {
+        if (AVAILABLE) {
+            FlightRecorderEvents.unknownEscape(charset, offset, src, sp, length);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of a charset, registered in the platform MBean server as
+ * {@code org.xbib.charset:type=CharsetMetrics,name=<charset>} when the first decoder or
+ * encoder of the charset is created.
+ *
+ * Counting is switched on by the system property {@link BibliographicCharsets#METRICS_PROPERTY}.
+ * Coders test the constant {@link #ENABLED} before counting, so the JIT compiler removes the
+ * counting code if it is off. The counters are {@link LongAdder}s, coders on many threads do
+ * not contend on them.
+ *
+ * The module {@code java.management} is optional. Without it, the counters are kept but not registered.
+ */
+final class CharsetMetrics implements CharsetMetricsMXBean {
+
+    static final boolean ENABLED = Boolean.getBoolean(BibliographicCharsets.METRICS_PROPERTY);
+
+    /**
+     * True if the module {@code java.management} is present and readable.
+     */
+    private static final boolean MANAGEMENT = ModuleLayer.boot().findModule("java.management")
+            .map(CharsetMetrics.class.getModule()::canRead)
+            .orElse(false);
+
+    private static final Map<Charset, CharsetMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private final String charset;
+
+    private final LongAdder bytesDecoded = new LongAdder();
+
+    private final LongAdder charsDecoded = new LongAdder();
+
+    private final LongAdder charsEncoded = new LongAdder();
+
+    private final LongAdder bytesEncoded = new LongAdder();
+
+    private final LongAdder replacements = new LongAdder();
+
+    private final LongAdder malformed = new LongAdder();
+
+    private final LongAdder unmappable = new LongAdder();
+
+    private final LongAdder composedClusters = new LongAdder();
+
+    private final Map<Character, LongAdder> escapeSequences = new ConcurrentHashMap<>();
+
+    private CharsetMetrics(String charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Get the counters of a charset, and register them on first use.
+     *
+     * @param charset the charset
+     * @return the counters
+     */
+    static CharsetMetrics of(Charset charset) {
+        CharsetMetrics metrics = METRICS.get(charset);
+        return metrics != null ? metrics : METRICS.computeIfAbsent(charset, CharsetMetrics::register);
+    }
+
+    private static CharsetMetrics register(Charset charset) {
+        CharsetMetrics metrics = new CharsetMetrics(charset.name());
+        if (MANAGEMENT) {
+            CharsetMBeans.register(metrics);
+        }
+        return metrics;
+    }
+
+    void decoded(int bytes, int chars, CoderResult result) {
+        bytesDecoded.add(bytes);
+        charsDecoded.add(chars);
+        count(result);
+    }
+
+    void encoded(int chars, int bytes, CoderResult result) {
+        charsEncoded.add(chars);
+        bytesEncoded.add(bytes);
+        count(result);
+    }
+
+    private void count(CoderResult result) {
+        if (result.isMalformed()) {
+            malformed.increment();
+        } else if (result.isUnmappable()) {
+            unmappable.increment();
+        }
+    }
+
+    void replaced() {
+        replacements.increment();
+    }
+
+    void composed() {
+        composedClusters.increment();
+    }
+
+    void escaped(char finalCharacter) {
+        LongAdder adder = escapeSequences.get(finalCharacter);
+        if (adder == null) {
+            adder = escapeSequences.computeIfAbsent(finalCharacter, c -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    @Override
+    public String getCharset() {
+        return charset;
+    }
+
+    @Override
+    public long getBytesDecoded() {
+        return bytesDecoded.sum();
+    }
+
+    @Override
+    public long getCharsDecoded() {
+        return charsDecoded.sum();
+    }
+
+    @Override
+    public long getCharsEncoded() {
+        return charsEncoded.sum();
+    }
+
+    @Override
+    public long getBytesEncoded() {
+        return bytesEncoded.sum();
+    }
+
+    @Override
+    public long getReplacements() {
+        return replacements.sum();
+    }
+
+    @Override
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    @Override
+    public long getUnmappable() {
+        return unmappable.sum();
+    }
+
+    @Override
+    public Map<String, Long> getEscapeSequences() {
+        Map<String, Long> map = new TreeMap<>();
+        escapeSequences.forEach((finalCharacter, adder) -> map.put(String.valueOf(finalCharacter), adder.sum()));
+        return map;
+    }
+
+    @Override
+    public long getComposedClusters() {
+        return composedClusters.sum();
+    }
+
+    @Override
+    public void reset() {
+        bytesDecoded.reset();
+        charsDecoded.reset();
+        charsEncoded.reset();
+        bytesEncoded.reset();
+        replacements.reset();
+        malformed.reset();
+        unmappable.reset();
+        composedClusters.reset();
+        escapeSequences.values().forEach(LongAdder::reset);
+    }
+}
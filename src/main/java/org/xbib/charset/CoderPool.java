@@ -0,0 +1,177 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of decoders and encoders of a charset, for callers on many threads.
+ *
+ * Coders are not thread-safe, and some are expensive to create. A borrowed coder belongs
+ * to the caller until it is released. On release it is reset and gets back the error
+ * actions and the replacement of a new coder, so the next borrower finds it as
+ * {@link Charset#newDecoder()} or {@link Charset#newEncoder()} would return it.
+ *
+ * <pre>
+ * CharsetDecoder decoder = CoderPool.of(BibliographicCharsets.ANSEL).borrowDecoder();
+ * try {
+ *     return decoder.decode(bytes);
+ * } finally {
+ *     CoderPool.of(BibliographicCharsets.ANSEL).release(decoder);
+ * }
+ * </pre>
+ *
+ * Platform threads keep one decoder and one encoder each, virtual threads share a bounded
+ * number of pooled coders.
+ */
+public final class CoderPool {
+
+    private static final Map<Charset, CoderPool> POOLS = new ConcurrentHashMap<>();
+
+    private final Charset charset;
+
+    private final Pool<CharsetDecoder> decoders;
+
+    private final Pool<CharsetEncoder> encoders;
+
+    private final String decoderReplacement;
+
+    private final byte[] encoderReplacement;
+
+    /**
+     * Create a pool.
+     *
+     * @param charset the charset
+     * @param capacity the number of coders of each kind shared by virtual threads
+     */
+    public CoderPool(Charset charset, int capacity) {
+        this.charset = charset;
+        this.decoders = new Pool<>(charset::newDecoder, capacity);
+        this.encoders = new Pool<>(charset::newEncoder, capacity);
+        this.decoderReplacement = charset.newDecoder().replacement();
+        this.encoderReplacement = charset.canEncode() ? replacement(charset) : null;
+    }
+
+    /**
+     * The shared pool of a charset.
+     *
+     * @param charset the charset
+     * @return the pool
+     */
+    public static CoderPool of(Charset charset) {
+        CoderPool pool = POOLS.get(charset);
+        return pool != null ? pool : POOLS.computeIfAbsent(charset, cs -> new CoderPool(cs, Pool.defaultCapacity()));
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    /**
+     * Borrow a decoder.
+     *
+     * @return a reset decoder which reports errors
+     */
+    public CharsetDecoder borrowDecoder() {
+        return decoders.borrow();
+    }
+
+    /**
+     * Return a borrowed decoder.
+     *
+     * @param decoder the decoder, not used by the caller afterwards
+     * @throws IllegalArgumentException if the decoder is not a decoder of the charset of this pool
+     */
+    public void release(CharsetDecoder decoder) {
+        if (decoder.charset() != charset) {
+            throw new IllegalArgumentException("not a decoder of " + charset.name());
+        }
+        decoder.reset();
+        if (decoder.malformedInputAction() != CodingErrorAction.REPORT) {
+            decoder.onMalformedInput(CodingErrorAction.REPORT);
+        }
+        if (decoder.unmappableCharacterAction() != CodingErrorAction.REPORT) {
+            decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        if (!decoder.replacement().equals(decoderReplacement)) {
+            decoder.replaceWith(decoderReplacement);
+        }
+        decoders.release(decoder);
+    }
+
+    /**
+     * Borrow an encoder.
+     *
+     * @return a reset encoder which reports errors
+     * @throws UnsupportedOperationException if the charset does not support encoding
+     */
+    public CharsetEncoder borrowEncoder() {
+        if (encoderReplacement == null) {
+            throw new UnsupportedOperationException(charset.name() + " does not support encoding");
+        }
+        return encoders.borrow();
+    }
+
+    /**
+     * Return a borrowed encoder.
+     *
+     * @param encoder the encoder, not used by the caller afterwards
+     * @throws IllegalArgumentException if the encoder is not an encoder of the charset of this pool
+     */
+    public void release(CharsetEncoder encoder) {
+        if (encoder.charset() != charset) {
+            throw new IllegalArgumentException("not an encoder of " + charset.name());
+        }
+        encoder.reset();
+        if (encoder.malformedInputAction() != CodingErrorAction.REPORT) {
+            encoder.onMalformedInput(CodingErrorAction.REPORT);
+        }
+        if (encoder.unmappableCharacterAction() != CodingErrorAction.REPORT) {
+            encoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        if (!Arrays.equals(encoder.replacement(), encoderReplacement)) {
+            encoder.replaceWith(encoderReplacement);
+        }
+        encoders.release(encoder);
+    }
+
+    private static byte[] replacement(Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder();
+        return encoder != null ? encoder.replacement() : null;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Coders and staging buffers for the array methods of {@link BibliographicCharsets}.
+ *
+ * Instances are pooled, a platform thread keeps its own, virtual threads share a bounded
+ * number. Decoders and encoders are created once per instance and charset and reset for
+ * each call, input and output go through fixed-size staging buffers, so a call allocates
+ * nothing once the instance has seen the charset. Malformed input and unmappable characters are
+ * replaced, like {@link String#String(byte[], Charset)} and {@link String#getBytes(Charset)} do.
+ */
+final class Coders {
+
+    private static final int STAGE_SIZE = 8192;
+
+    /**
+     * Scratch arrays up to this size are kept for the next call, larger ones are dropped.
+     */
+    private static final int RETAINED_SIZE = 65536;
+
+    private static final Pool<Coders> CODERS = new Pool<>(Coders::new, Pool.defaultCapacity());
+
+    private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+
+    private final Map<Charset, CharsetEncoder> encoders = new HashMap<>();
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(STAGE_SIZE);
+
+    private final CharBuffer chars = CharBuffer.allocate(STAGE_SIZE);
+
+    private char[] text = new char[256];
+
+    private byte[] data = new byte[256];
+
+    private byte[] source = new byte[256];
+
+    private byte[] target = new byte[256];
+
+    private Coders() {
+    }
+
+    static Coders borrow() {
+        return CODERS.borrow();
+    }
+
+    static void release(Coders coders) {
+        CODERS.release(coders);
+    }
+
+    int decode(Charset charset, byte[] src, int off, int len, char[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        Objects.checkFromIndexSize(dstOff, 0, dst.length);
+        return decode(decoder(charset), src, off, len, dst, dstOff);
+    }
+
+    /**
+     * Decode bytes and record the malformed and unmappable bytes, with their index in the source array.
+     */
+    int decode(Charset charset, byte[] src, int off, int len, char[] dst, int dstOff, IntBuffer errors) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        Objects.checkFromIndexSize(dstOff, 0, dst.length);
+        CharsetDecoder decoder = decoder(charset);
+        if (!(decoder instanceof ArrayDecoder)) {
+            throw new IllegalArgumentException("no error recording for " + charset.name());
+        }
+        int start = errors.position();
+        ((ArrayDecoder) decoder).recordErrors(errors);
+        try {
+            return decode(decoder, src, off, len, dst, dstOff);
+        } finally {
+            ((ArrayDecoder) decoder).recordErrors(null);
+            // offsets since the reset are relative to the first byte
+            for (int i = start; i < errors.position(); i += 2) {
+                errors.put(i, errors.get(i) + off);
+            }
+        }
+    }
+
+    private int decode(CharsetDecoder decoder, byte[] src, int off, int len, char[] dst, int dstOff) {
+        ByteBuffer in = bytes;
+        CharBuffer out = chars;
+        in.clear();
+        out.clear();
+        int sp = off;
+        int end = off + len;
+        int dp = dstOff;
+        while (true) {
+            int n = Math.min(end - sp, in.remaining());
+            in.put(src, sp, n);
+            sp += n;
+            in.flip();
+            boolean endOfInput = sp == end;
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            in.compact();
+            dp = drain(out, dst, dp);
+            if (result.isUnderflow() && endOfInput) {
+                break;
+            }
+        }
+        while (decoder.flush(out).isOverflow()) {
+            dp = drain(out, dst, dp);
+        }
+        return drain(out, dst, dp) - dstOff;
+    }
+
+    String decodeToString(Charset charset, byte[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int size = (int) Math.ceil(len * (double) decoder(charset).maxCharsPerByte());
+        char[] dst = text.length >= size ? text : new char[size];
+        if (size <= RETAINED_SIZE) {
+            text = dst;
+        }
+        return new String(dst, 0, decode(charset, src, off, len, dst, 0));
+    }
+
+    /**
+     * Decode bytes and encode the chars into a new buffer, record by record. The coders are reset before
+     * each record terminator, so escape sequences and combining characters do not span records, and the
+     * result does not depend on how the records are grouped into buffers.
+     *
+     * @return the bytes, from position zero to the limit
+     */
+    ByteBuffer transcode(Charset from, ByteBuffer src, Charset to) {
+        CharsetDecoder decoder = decoder(from);
+        CharBuffer text = CharBuffer.allocate((int) Math.ceil(src.remaining() * (double) decoder.maxCharsPerByte()));
+        int end = src.limit();
+        while (src.position() < end) {
+            src.limit(recordEnd(src, end));
+            decoder.decode(src, text, true);
+            decoder.flush(text);
+            decoder.reset();
+            src.limit(end);
+        }
+        text.flip();
+        CharsetEncoder encoder = encoder(to);
+        // grow on overflow instead of zeroing the worst case of e.g. three bytes per char for UTF-8
+        ByteBuffer dst = ByteBuffer.allocate((int) Math.ceil(text.remaining() * 1.125 * encoder.averageBytesPerChar()) + 16);
+        int length = text.limit();
+        while (text.position() < length) {
+            text.limit(recordEnd(text, length));
+            while (encoder.encode(text, dst, true).isOverflow()) {
+                dst = grow(dst, text.remaining() * encoder.maxBytesPerChar());
+            }
+            while (encoder.flush(dst).isOverflow()) {
+                dst = grow(dst, encoder.maxBytesPerChar());
+            }
+            encoder.reset();
+            text.limit(length);
+        }
+        return dst.flip();
+    }
+
+    /**
+     * The index of the next record terminator after the first byte, or the end.
+     */
+    private static int recordEnd(ByteBuffer buffer, int end) {
+        for (int i = buffer.position() + 1; i < end; i++) {
+            if (buffer.get(i) == BibliographicTranscoder.RECORD_TERMINATOR) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * The index of the next record terminator after the first char, or the end.
+     */
+    private static int recordEnd(CharBuffer buffer, int end) {
+        for (int i = buffer.position() + 1; i < end; i++) {
+            if (buffer.get(i) == BibliographicTranscoder.RECORD_TERMINATOR) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Decode bytes and encode the chars into an array, through the scratch char array.
+     *
+     * @param compose true for composing the chars to Normalization Form C before encoding
+     * @return the number of bytes written
+     */
+    int transcode(Charset from, byte[] src, int off, int len, Charset to, byte[] dst, int dstOff, boolean compose) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int size = (int) Math.ceil(len * (double) decoder(from).maxCharsPerByte());
+        char[] chars = text.length >= size ? text : new char[size];
+        if (size <= RETAINED_SIZE) {
+            text = chars;
+        }
+        int n = decode(from, src, off, len, chars, 0);
+        if (compose) {
+            String s = Normalizer.normalize(CharBuffer.wrap(chars, 0, n), Normalizer.Form.NFC);
+            return encode(to, null, s, 0, s.length(), dst, dstOff);
+        }
+        return encode(to, chars, null, 0, n, dst, dstOff);
+    }
+
+    /**
+     * A scratch array for input copied out of a buffer without an accessible array.
+     */
+    byte[] source(int size) {
+        byte[] array = source.length >= size ? source : new byte[size];
+        if (size <= RETAINED_SIZE) {
+            source = array;
+        }
+        return array;
+    }
+
+    /**
+     * A scratch array for output which is copied into a buffer afterwards.
+     */
+    byte[] target(int size) {
+        byte[] array = target.length >= size ? target : new byte[size];
+        if (size <= RETAINED_SIZE) {
+            target = array;
+        }
+        return array;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, float needed) {
+        int size = (int) Math.max(buffer.capacity() + Math.ceil(needed), buffer.capacity() * 1.5 + 16);
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        return bigger.put(buffer.flip());
+    }
+
+    int encode(Charset charset, char[] src, int off, int len, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        return encode(charset, src, null, off, len, dst, dstOff);
+    }
+
+    int encode(Charset charset, String src, byte[] dst, int dstOff) {
+        return encode(charset, null, src, 0, src.length(), dst, dstOff);
+    }
+
+    byte[] encodeToBytes(Charset charset, String src) {
+        int size = (int) Math.ceil(src.length() * (double) encoder(charset).maxBytesPerChar());
+        byte[] dst = data.length >= size ? data : new byte[size];
+        if (size <= RETAINED_SIZE) {
+            data = dst;
+        }
+        return Arrays.copyOf(dst, encode(charset, null, src, 0, src.length(), dst, 0));
+    }
+
+    private int encode(Charset charset, char[] array, String string, int off, int len, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(dstOff, 0, dst.length);
+        CharsetEncoder encoder = encoder(charset);
+        CharBuffer in = chars;
+        ByteBuffer out = bytes;
+        in.clear();
+        out.clear();
+        int sp = off;
+        int end = off + len;
+        int dp = dstOff;
+        while (true) {
+            int n = Math.min(end - sp, in.remaining());
+            if (array != null) {
+                in.put(array, sp, n);
+            } else {
+                string.getChars(sp, sp + n, in.array(), in.position());
+                in.position(in.position() + n);
+            }
+            sp += n;
+            in.flip();
+            boolean endOfInput = sp == end;
+            CoderResult result = encoder.encode(in, out, endOfInput);
+            in.compact();
+            dp = drain(out, dst, dp);
+            if (result.isUnderflow() && endOfInput) {
+                break;
+            }
+        }
+        while (encoder.flush(out).isOverflow()) {
+            dp = drain(out, dst, dp);
+        }
+        return drain(out, dst, dp) - dstOff;
+    }
+
+    private CharsetDecoder decoder(Charset charset) {
+        CharsetDecoder decoder = decoders.get(charset);
+        if (decoder == null) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders.put(charset, decoder);
+        }
+        return decoder.reset();
+    }
+
+    private CharsetEncoder encoder(Charset charset) {
+        CharsetEncoder encoder = encoders.get(charset);
+        if (encoder == null) {
+            encoder = charset.canEncode() ? charset.newEncoder() : null;
+            if (encoder == null) {
+                throw new UnsupportedOperationException(charset.name() + " does not support encoding");
+            }
+            encoder = encoder.onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoders.put(charset, encoder);
+        }
+        return encoder.reset();
+    }
+
+    private static int drain(CharBuffer out, char[] dst, int dp) {
+        out.flip();
+        int n = out.remaining();
+        if (n > dst.length - dp) {
+            throw new IndexOutOfBoundsException("output array too small, need " + (dp + n) + " chars");
+        }
+        out.get(dst, dp, n);
+        out.clear();
+        return dp + n;
+    }
+
+    private static int drain(ByteBuffer out, byte[] dst, int dp) {
+        out.flip();
+        int n = out.remaining();
+        if (n > dst.length - dp) {
+            throw new IndexOutOfBoundsException("output array too small, need " + (dp + n) + " bytes");
+        }
+        out.get(dst, dp, n);
+        out.clear();
+        return dp + n;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.Buffer;
+import java.nio.charset.CoderResult;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A processor which decodes or encodes the buffers of a stream with one coder, so the state of
+ * the coder, e.g. ANSEL escape sequences and combining clusters, carries over from buffer to buffer.
+ *
+ * One input buffer is requested at a time, and only while the subscriber has demand. The coder reads
+ * the input buffers in place and writes into output buffers of a pool. A sequence which is incomplete
+ * at the end of an input buffer is the only input which is copied, into a small carry buffer, until the
+ * next input buffer completes it. Signals may come from any thread, they are processed by one thread
+ * at a time in a drain loop.
+ *
+ * @param <I> the type of the input buffers
+ * @param <O> the type of the output buffers
+ */
+abstract class CodingProcessor<I extends Buffer, O extends Buffer> implements Flow.Processor<I, O>, Flow.Subscription {
+
+    /**
+     * The capacity of the output buffers.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The initial capacity of the carry buffer, and the number of input elements which are appended
+     * to the carry buffer at a time.
+     */
+    private static final int CARRY_SIZE = 64;
+
+    private final Pool<O> pool;
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicLong demand = new AtomicLong();
+
+    private final AtomicReference<Flow.Subscriber<? super O>> subscriber = new AtomicReference<>();
+
+    private volatile Flow.Subscription upstream;
+
+    private volatile I pending;
+
+    private volatile boolean complete;
+
+    private volatile Throwable error;
+
+    private volatile boolean cancelled;
+
+    private I input;
+
+    private I carry;
+
+    private O output;
+
+    private boolean requested;
+
+    private boolean flushing;
+
+    private boolean finished;
+
+    CodingProcessor(Pool<O> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Decode or encode like {@link java.nio.charset.CharsetDecoder#decode(java.nio.ByteBuffer, java.nio.CharBuffer, boolean)}.
+     */
+    abstract CoderResult code(I in, O out, boolean endOfInput);
+
+    /**
+     * Flush like {@link java.nio.charset.CharsetDecoder#flush(java.nio.CharBuffer)}.
+     */
+    abstract CoderResult flush(O out);
+
+    /**
+     * Copy the remaining elements of the carry buffer and the next elements of the input into a buffer.
+     *
+     * @param carry the carry buffer
+     * @param in the input, its position is not changed
+     * @param n the number of input elements
+     * @return the carry buffer or a larger one, flipped for reading
+     */
+    abstract I append(I carry, I in, int n);
+
+    /**
+     * @param capacity the capacity
+     * @return a new buffer for the carry, empty and flipped for reading
+     */
+    abstract I allocateCarry(int capacity);
+
+    /**
+     * Give an output buffer back, when the subscriber is done with it, for the next output.
+     * Buffers which are not released are garbage collected as usual.
+     *
+     * @param buffer an output buffer of this processor
+     */
+    public void release(O buffer) {
+        if (buffer.capacity() == BUFFER_SIZE && !buffer.isReadOnly()) {
+            buffer.clear();
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super O> s) {
+        Objects.requireNonNull(s);
+        if (!subscriber.compareAndSet(null, s)) {
+            s.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("the processor has a subscriber"));
+            return;
+        }
+        s.onSubscribe(this);
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(I item) {
+        pending = Objects.requireNonNull(item);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = Objects.requireNonNull(throwable);
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        complete = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            error = new IllegalArgumentException("non-positive request: " + n);
+        } else {
+            demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (!finished) {
+                drainLoop();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drainLoop() {
+        Flow.Subscriber<? super O> s = subscriber.get();
+        if (cancelled) {
+            terminate();
+            return;
+        }
+        Throwable t = error;
+        if (t != null && s != null) {
+            terminate();
+            s.onError(t);
+            return;
+        }
+        while (s != null) {
+            if (input == null) {
+                I next = pending;
+                if (next != null) {
+                    pending = null;
+                    requested = false;
+                    input = next;
+                } else if (complete) {
+                    if (finish(s)) {
+                        terminate();
+                        s.onComplete();
+                    }
+                    return;
+                } else {
+                    Flow.Subscription subscription = upstream;
+                    if (!requested && subscription != null && demand.get() > 0) {
+                        requested = true;
+                        // may call onNext before it returns, which is processed in the next round of drain
+                        subscription.request(1);
+                    }
+                    return;
+                }
+            }
+            if (demand.get() == 0) {
+                return;
+            }
+            if (output == null) {
+                output = pool.borrow();
+            }
+            if (codeInput().isOverflow()) {
+                emit(s);
+            } else {
+                input = null;
+                if (output.position() > 0) {
+                    emit(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Code the input, after the carried sequence if there is one.
+     *
+     * @return overflow if the output is full, underflow if the input is consumed
+     */
+    private CoderResult codeInput() {
+        while (carry != null && carry.hasRemaining() && input.hasRemaining()) {
+            int k = carry.remaining();
+            int n = Math.min(input.remaining(), CARRY_SIZE);
+            carry = append(carry, input, n);
+            CoderResult result = code(carry, output, false);
+            int consumed = carry.position();
+            if (consumed >= k) {
+                // the carried sequence is complete, go on in the input
+                input.position(input.position() + consumed - k);
+                carry.limit(0);
+            } else if (result.isUnderflow()) {
+                // still incomplete, keep the appended elements too
+                input.position(input.position() + n);
+            } else {
+                carry.limit(k);
+            }
+            if (result.isOverflow()) {
+                return result;
+            }
+        }
+        CoderResult result = code(input, output, false);
+        if (result.isUnderflow() && input.hasRemaining()) {
+            // an incomplete sequence at the end of the input
+            carry = append(carry != null ? carry : allocateCarry(CARRY_SIZE), input, input.remaining());
+            input.position(input.limit());
+        }
+        return result;
+    }
+
+    /**
+     * Code the end of the input and flush the coder, as far as the demand allows.
+     *
+     * @return true if all output is emitted
+     */
+    private boolean finish(Flow.Subscriber<? super O> s) {
+        while (true) {
+            if (output == null) {
+                output = pool.borrow();
+            }
+            CoderResult result;
+            if (!flushing) {
+                if (carry == null) {
+                    carry = allocateCarry(CARRY_SIZE);
+                }
+                result = code(carry, output, true);
+                flushing = result.isUnderflow();
+            }
+            if (flushing) {
+                result = flush(output);
+                if (result.isUnderflow() && output.position() == 0) {
+                    return true;
+                }
+            } else {
+                result = CoderResult.OVERFLOW;
+            }
+            if (demand.get() == 0) {
+                return false;
+            }
+            emit(s);
+            if (result.isUnderflow()) {
+                return true;
+            }
+        }
+    }
+
+    private void emit(Flow.Subscriber<? super O> s) {
+        O item = output;
+        output = null;
+        item.flip();
+        demand.decrementAndGet();
+        s.onNext(item);
+    }
+
+    private void terminate() {
+        finished = true;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null && !complete) {
+            subscription.cancel();
+        }
+        if (output != null) {
+            output.clear();
+            pool.release(output);
+            output = null;
+        }
+        input = null;
+        carry = null;
+        pending = null;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Canonical composition for single byte character sets where combining bytes precede
+ * their base byte, precomputed from the byte table of the character set.
+ *
+ * A cluster of combining bytes and a base byte is converted to the base character
+ * followed by the combining characters in reverse byte order, and then to Unicode
+ * normalization form C. The table holds everything the normalization needs for the
+ * characters the byte table can produce: the canonical decomposition of each base
+ * character, the relative canonical combining class of each combining character, and
+ * the primary composites. These are derived from {@link Normalizer}, the composites of a
+ * starter when it first occurs in a cluster, everything else once per character set.
+ *
+ * Clusters the table does not cover, e.g. with unmapped bytes, are left to the caller.
+ */
+final class CompositionTable {
+
+    private static final int COMBINING = 0x100;
+
+    private static final int SIMPLE = 0x200;
+
+    private static final int REGULAR = 0x400;
+
+    private static final int RANK_MASK = 0xff;
+
+    private final char[] chars;
+
+    private final int[] properties;
+
+    private final char[] starters;
+
+    private final char[][] trailing;
+
+    private final byte[][] trailingRanks;
+
+    private final int maxTrailing;
+
+    private final char[] marks;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<char[]>> rows;
+
+    /**
+     * Create the composition table for a character set.
+     *
+     * @param byteToChar the byte table, 0 for unmapped bytes
+     * @param isCombining the predicate for combining bytes, called with unsigned byte values
+     */
+    CompositionTable(char[] byteToChar, IntPredicate isCombining) {
+        this.chars = byteToChar.clone();
+        this.properties = new int[256];
+        this.starters = new char[256];
+        this.trailing = new char[256][];
+        this.trailingRanks = new byte[256][];
+        List<String> singles = new ArrayList<>();
+        for (int b = 0; b < 256; b++) {
+            singles.add(chars[b] != 0 ? String.valueOf(chars[b]) : "");
+        }
+        String[] nfc = normalize(singles, Normalizer.Form.NFC);
+        String[] nfd = normalize(singles, Normalizer.Form.NFD);
+        Set<Character> candidates = new HashSet<>();
+        for (String s : nfd) {
+            for (int i = 0; i < s.length(); i++) {
+                candidates.add(s.charAt(i));
+            }
+        }
+        Set<Character> nonStarters = nonStarters(candidates);
+        Set<Character> markSet = new HashSet<>();
+        for (int b = 0; b < 256; b++) {
+            char ch = chars[b];
+            if (isCombining.test(b)) {
+                properties[b] |= COMBINING;
+                if (ch != 0 && nonStarters.contains(ch) && nfd[b].equals(singles.get(b))) {
+                    markSet.add(ch);
+                }
+            } else if (ch != 0) {
+                if (nfc[b].equals(singles.get(b))) {
+                    properties[b] |= SIMPLE;
+                }
+                boolean regular = !nonStarters.contains(nfd[b].charAt(0));
+                for (int i = 1; i < nfd[b].length(); i++) {
+                    regular &= nonStarters.contains(nfd[b].charAt(i));
+                }
+                if (regular) {
+                    properties[b] |= REGULAR;
+                    starters[b] = nfd[b].charAt(0);
+                    trailing[b] = nfd[b].substring(1).toCharArray();
+                    for (char mark : trailing[b]) {
+                        markSet.add(mark);
+                    }
+                }
+            }
+        }
+        // canonical combining classes are not exposed by the JDK, but their order is observable
+        // from canonical reordering, and the order is all that reordering and composition need
+        List<Character> marks = new ArrayList<>(markSet);
+        Set<String> swaps = swaps(marks);
+        marks.sort((a, b) -> swaps.contains(a + "" + b) ? 1 : swaps.contains(b + "" + a) ? -1 : 0);
+        Map<Character, Integer> ranks = new HashMap<>();
+        int rank = 0;
+        for (int i = 0; i < marks.size(); i++) {
+            if (i == 0 || swaps.contains(marks.get(i) + "" + marks.get(i - 1))) {
+                rank++;
+            }
+            ranks.put(marks.get(i), rank);
+        }
+        int max = 0;
+        for (int b = 0; b < 256; b++) {
+            if ((properties[b] & COMBINING) != 0 && ranks.containsKey(chars[b])) {
+                properties[b] |= ranks.get(chars[b]);
+            }
+            if ((properties[b] & REGULAR) != 0) {
+                trailingRanks[b] = new byte[trailing[b].length];
+                for (int i = 0; i < trailing[b].length; i++) {
+                    trailingRanks[b][i] = (byte) (int) ranks.get(trailing[b][i]);
+                }
+                max = Math.max(max, trailing[b].length);
+            }
+        }
+        this.maxTrailing = max;
+        this.marks = new char[marks.size()];
+        for (int i = 0; i < this.marks.length; i++) {
+            this.marks[i] = marks.get(i);
+        }
+        Arrays.sort(this.marks);
+        this.rows = new AtomicReferenceArray<>(256);
+    }
+
+    /**
+     * @param b the unsigned byte value
+     * @return the character of the byte table, 0 if unmapped
+     */
+    char charAt(int b) {
+        return chars[b];
+    }
+
+    /**
+     * @param b the unsigned byte value
+     * @return true if the byte is a combining byte
+     */
+    boolean isCombining(int b) {
+        return (properties[b] & COMBINING) != 0;
+    }
+
+    /**
+     * A simple byte is a mapped base byte whose character is already in normalization form C,
+     * so it can be decoded by table lookup if no combining bytes precede it.
+     *
+     * @param b the unsigned byte value
+     * @return true if the byte is simple
+     */
+    boolean isSimple(int b) {
+        return (properties[b] & SIMPLE) != 0;
+    }
+
+    /**
+     * The size of the work arrays for {@link #compose}.
+     *
+     * @param combiningLength the maximum number of combining bytes in a cluster
+     * @return the work array size
+     */
+    int workSize(int combiningLength) {
+        return combiningLength + maxTrailing + 1;
+    }
+
+    /**
+     * Compose a cluster to normalization form C.
+     *
+     * @param base the unsigned base byte value
+     * @param combining the combining bytes, in byte order
+     * @param combiningLength the number of combining bytes
+     * @param work the work array for the characters, receives the result
+     * @param ranks the work array for the ranks
+     * @return the number of characters in the result, or -1 if the table does not cover the cluster
+     */
+    int compose(int base, byte[] combining, int combiningLength, char[] work, byte[] ranks) {
+        if ((properties[base] & REGULAR) == 0) {
+            return -1;
+        }
+        char[] t = trailing[base];
+        byte[] tr = trailingRanks[base];
+        int n = 0;
+        for (int i = 0; i < t.length; i++) {
+            work[n] = t[i];
+            ranks[n++] = tr[i];
+        }
+        for (int i = combiningLength - 1; i >= 0; i--) {
+            int b = combining[i] & 0xff;
+            int rank = properties[b] & RANK_MASK;
+            if (rank == 0) {
+                return -1;
+            }
+            work[n] = chars[b];
+            ranks[n++] = (byte) rank;
+        }
+        // canonical ordering, a stable sort by combining class
+        for (int i = 1; i < n; i++) {
+            char ch = work[i];
+            byte rank = ranks[i];
+            int j = i - 1;
+            while (j >= 0 && ranks[j] > rank) {
+                work[j + 1] = work[j];
+                ranks[j + 1] = ranks[j];
+                j--;
+            }
+            work[j + 1] = ch;
+            ranks[j + 1] = rank;
+        }
+        // canonical composition, a mark is blocked by an uncomposed mark of the same class
+        char starter = starters[base];
+        int kept = 0;
+        int last = 0;
+        for (int i = 0; i < n; i++) {
+            int rank = ranks[i];
+            char composite = last < rank ? composite(starter, work[i]) : 0;
+            if (composite != 0) {
+                starter = composite;
+            } else {
+                work[kept++] = work[i];
+                last = rank;
+            }
+        }
+        System.arraycopy(work, 0, work, 1, kept);
+        work[0] = starter;
+        return kept + 1;
+    }
+
+    private char composite(char starter, char mark) {
+        int i = Arrays.binarySearch(marks, mark);
+        if (i < 0) {
+            return 0;
+        }
+        AtomicReferenceArray<char[]> page = rows.get(starter >>> 8);
+        if (page == null) {
+            rows.compareAndSet(starter >>> 8, null, new AtomicReferenceArray<>(256));
+            page = rows.get(starter >>> 8);
+        }
+        char[] row = page.get(starter & 0xff);
+        if (row == null) {
+            row = composites(starter);
+            page.set(starter & 0xff, row);
+        }
+        return row[i];
+    }
+
+    /**
+     * The primary composites of a starter with the marks. They are computed when the
+     * starter is first seen, most starters never occur in a cluster.
+     */
+    private char[] composites(char starter) {
+        List<String> pairs = new ArrayList<>(marks.length);
+        for (char mark : marks) {
+            pairs.add(starter + "" + mark);
+        }
+        String[] nfc = normalize(pairs, Normalizer.Form.NFC);
+        char[] row = new char[marks.length];
+        for (int i = 0; i < row.length; i++) {
+            if (nfc[i].length() == 1) {
+                row[i] = nfc[i].charAt(0);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Canonical reordering swaps two adjacent marks if the combining class of the first is
+     * greater than the combining class of the second, and the second is not a starter.
+     *
+     * @return the pairs of marks which are swapped
+     */
+    private static Set<String> swaps(List<Character> marks) {
+        List<String> pairs = new ArrayList<>();
+        for (char first : marks) {
+            for (char second : marks) {
+                pairs.add(first + "" + second);
+            }
+        }
+        Set<String> swaps = new HashSet<>();
+        String[] nfd = normalize(prefix(pairs), Normalizer.Form.NFD);
+        for (int i = 0; i < nfd.length; i++) {
+            String pair = pairs.get(i);
+            if (nfd[i].equals("a" + pair.charAt(1) + pair.charAt(0))) {
+                swaps.add(pair);
+            }
+        }
+        return swaps;
+    }
+
+    /**
+     * A non-starter has a combining class greater than 0, so it is reordered with U+0334
+     * (class 1) or with U+0345 (class 240).
+     */
+    private static Set<Character> nonStarters(Set<Character> candidates) {
+        List<Character> list = new ArrayList<>(candidates);
+        List<String> probes = new ArrayList<>();
+        for (char ch : list) {
+            probes.add(ch + "\u0334");
+            probes.add("\u0345" + ch);
+        }
+        String[] nfd = normalize(prefix(probes), Normalizer.Form.NFD);
+        Set<Character> nonStarters = new HashSet<>();
+        for (int i = 0; i < nfd.length; i += 2) {
+            char ch = list.get(i / 2);
+            if (nfd[i].equals("a\u0334" + ch) || nfd[i + 1].equals("a" + ch + "\u0345")) {
+                nonStarters.add(ch);
+            }
+        }
+        return nonStarters;
+    }
+
+    private static List<String> prefix(List<String> strings) {
+        List<String> list = new ArrayList<>(strings.size());
+        for (String s : strings) {
+            list.add("a" + s);
+        }
+        return list;
+    }
+
+    /**
+     * Normalize many short strings with one call. The strings are separated by U+0000,
+     * which is a starter and neither reorders nor composes with its neighbours.
+     */
+    static String[] normalize(List<String> strings, Normalizer.Form form) {
+        return Normalizer.normalize(String.join("\u0000", strings), form).split("\u0000", -1);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A {@link java.util.concurrent.Flow.Processor} which encodes a stream of char buffers into
+ * byte buffers.
+ *
+ * The processor consumes the char buffers it receives. The byte buffers it emits come from a pool,
+ * give them back with {@link #release(java.nio.Buffer)} after use. Malformed input and unmappable
+ * characters are replaced.
+ */
+public final class EncodingProcessor extends CodingProcessor<CharBuffer, ByteBuffer> {
+
+    private static final Pool<ByteBuffer> BUFFERS =
+            new Pool<>(() -> ByteBuffer.allocate(BUFFER_SIZE), Pool.defaultCapacity());
+
+    private final CharsetEncoder encoder;
+
+    /**
+     * @param charset the charset of the byte buffers
+     * @throws UnsupportedOperationException if the charset does not support encoding
+     */
+    public EncodingProcessor(Charset charset) {
+        super(BUFFERS);
+        CharsetEncoder encoder = charset.canEncode() ? charset.newEncoder() : null;
+        if (encoder == null) {
+            throw new UnsupportedOperationException(charset.name() + " does not support encoding");
+        }
+        this.encoder = encoder.onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    CoderResult code(CharBuffer in, ByteBuffer out, boolean endOfInput) {
+        return encoder.encode(in, out, endOfInput);
+    }
+
+    @Override
+    CoderResult flush(ByteBuffer out) {
+        return encoder.flush(out);
+    }
+
+    @Override
+    CharBuffer append(CharBuffer carry, CharBuffer in, int n) {
+        CharBuffer buffer = carry;
+        if (carry.capacity() < carry.remaining() + n) {
+            buffer = CharBuffer.allocate(2 * (carry.remaining() + n)).put(carry);
+        } else {
+            buffer.compact();
+        }
+        CharBuffer slice = in.duplicate();
+        slice.limit(in.position() + n);
+        return buffer.put(slice).flip();
+    }
+
+    @Override
+    CharBuffer allocateCarry(int capacity) {
+        return CharBuffer.allocate(capacity).flip();
+    }
+}
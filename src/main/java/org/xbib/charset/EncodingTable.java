@@ -0,0 +1,197 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Direct table from UTF-16 code units to the bytes of a single byte character set where
+ * combining bytes precede their base byte.
+ *
+ * The entry of a character holds the bytes of its canonical decomposition in output order,
+ * i.e. the combining bytes in reverse order followed by the base byte, so a precomposed
+ * character like {@code ä} is written as diaeresis byte and base byte. The entries are
+ * computed in pages of 256 characters when a page is first used. A quick-check bitset,
+ * computed once per character set, marks the characters that are mapped to a single byte
+ * and need no decomposition, e.g. ASCII.
+ */
+final class EncodingTable {
+
+    private static final int COUNT_SHIFT = 24;
+
+    private static final int REPLACED_SHIFT = 26;
+
+    private static final int COMPLEX = 0x40000000;
+
+    /**
+     * The maximum number of bytes for a character, the length of the longest canonical decomposition.
+     */
+    static final int MAX_BYTES_PER_CHAR = 4;
+
+    private final Map<Character, Byte> charToByte;
+
+    private final boolean decompose;
+
+    private final long[] quick;
+
+    private final byte[] asciiBytes;
+
+    private final AtomicReferenceArray<int[]> pages;
+
+    /**
+     * Create the encoding table for a character set.
+     *
+     * @param charToByte the mapped characters and their bytes
+     * @param decompose true if characters are decomposed before conversion
+     */
+    EncodingTable(Map<Character, Byte> charToByte, boolean decompose) {
+        this.charToByte = charToByte;
+        this.decompose = decompose;
+        this.quick = new long[1024];
+        this.asciiBytes = new byte[0x80];
+        this.pages = new AtomicReferenceArray<>(256);
+        List<Character> chars = new ArrayList<>(charToByte.keySet());
+        List<String> singles = new ArrayList<>(chars.size());
+        for (char ch : chars) {
+            singles.add(String.valueOf(ch));
+        }
+        String[] nfd = decompose ? CompositionTable.normalize(singles, Normalizer.Form.NFD) : null;
+        for (int i = 0; i < chars.size(); i++) {
+            char ch = chars.get(i);
+            if (!isCombiningCharacter(ch) && (nfd == null || nfd[i].equals(singles.get(i)))) {
+                quick[ch >>> 6] |= 1L << ch;
+                if (ch < 0x80) {
+                    asciiBytes[ch] = charToByte.get(ch);
+                }
+            }
+        }
+    }
+
+    static boolean isCombiningCharacter(char ch) {
+        return ch >= '\u0300' && ch <= '\u036F';
+    }
+
+    /**
+     * @param ch the character
+     * @return true if the character is mapped to a single byte without decomposition
+     */
+    boolean isQuick(char ch) {
+        return (quick[ch >>> 6] & (1L << ch)) != 0;
+    }
+
+    /**
+     * @param ch a quick character below 0x80
+     * @return the byte of the character
+     */
+    byte asciiByte(char ch) {
+        return asciiBytes[ch];
+    }
+
+    /**
+     * @param ch the character
+     * @return the entry of the character
+     */
+    int entry(char ch) {
+        int[] page = pages.get(ch >>> 8);
+        if (page == null) {
+            page = page(ch >>> 8);
+            pages.set(ch >>> 8, page);
+        }
+        return page[ch & 0xff];
+    }
+
+    /**
+     * A complex entry does not hold the bytes, the decomposition of the character is longer
+     * than three characters. It is left to {@link #decomposition(char)}.
+     *
+     * @param entry the entry of a character
+     * @return true if the entry is complex
+     */
+    static boolean isComplex(int entry) {
+        return (entry & COMPLEX) != 0;
+    }
+
+    /**
+     * @param entry the entry of a character
+     * @return the number of bytes in the entry, each of which may be replaced
+     */
+    static int count(int entry) {
+        return (entry >>> COUNT_SHIFT) & 0x3;
+    }
+
+    /**
+     * @param entry the entry of a character
+     * @param i the index of the byte
+     * @return the byte, or -1 if it is unmapped and must be replaced
+     */
+    static int byteAt(int entry, int i) {
+        return (entry & (1 << (REPLACED_SHIFT + i))) != 0 ? -1 : (entry >>> (8 * i)) & 0xff;
+    }
+
+    /**
+     * @param ch the character
+     * @return the canonical decomposition of a character with a complex entry
+     */
+    String decomposition(char ch) {
+        return Normalizer.normalize(String.valueOf(ch), Normalizer.Form.NFD);
+    }
+
+    private int[] page(int page) {
+        int[] entries = new int[256];
+        List<String> singles = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) {
+            char ch = (char) (page << 8 | i);
+            singles.add(ch == 0 || Character.isSurrogate(ch) ? "" : String.valueOf(ch));
+        }
+        String[] strings = decompose ? CompositionTable.normalize(singles, Normalizer.Form.NFD) : null;
+        for (int i = 0; i < 256; i++) {
+            char ch = (char) (page << 8 | i);
+            String s = strings != null && !singles.get(i).isEmpty() ? strings[i] : String.valueOf(ch);
+            int entry = 0;
+            if (s.length() > 3) {
+                entry = COMPLEX;
+            } else {
+                for (int j = 0; j < s.length(); j++) {
+                    Byte b = charToByte.get(s.charAt(s.length() - 1 - j));
+                    entry |= b != null ? (b & 0xff) << (8 * j) : 1 << (REPLACED_SHIFT + j);
+                }
+                entry |= s.length() << COUNT_SHIFT;
+            }
+            entries[i] = entry;
+        }
+        return entries;
+    }
+}
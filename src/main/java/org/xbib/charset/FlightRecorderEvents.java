@@ -0,0 +1,179 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JDK Flight Recorder events behind {@link CharsetEvents}, the only class which uses the
+ * {@code jdk.jfr} API. It is loaded only if the module {@code jdk.jfr} is present.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * See {@link CharsetEvents#decode(ArrayDecoder, ByteBuffer, CharBuffer)}.
+     */
+    static CoderResult decode(ArrayDecoder decoder, ByteBuffer in, CharBuffer out) {
+        SlowDecode event = new SlowDecode();
+        if (!event.isEnabled()) {
+            return decoder.decodeCounted(in, out);
+        }
+        long offset = decoder.consumed();
+        int inPosition = in.position();
+        int outPosition = out.position();
+        event.begin();
+        CoderResult result = decoder.decodeCounted(in, out);
+        event.end();
+        if (event.shouldCommit()) {
+            event.charset = decoder.charset().name();
+            event.offset = offset;
+            event.inputSize = in.limit() - inPosition;
+            event.bytesRead = in.position() - inPosition;
+            event.charsWritten = out.position() - outPosition;
+            event.result = result.toString();
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * See {@link CharsetEvents#rollback(Charset, long, int, boolean)}.
+     */
+    static void rollback(Charset charset, long offset, int combining, boolean malformed) {
+        DecoderRollback event = new DecoderRollback();
+        if (event.shouldCommit()) {
+            event.charset = charset.name();
+            event.offset = offset;
+            event.combining = combining;
+            event.malformed = malformed;
+            event.commit();
+        }
+    }
+
+    /**
+     * See {@link CharsetEvents#unknownEscape(Charset, long, byte[], int, int)}.
+     */
+    static void unknownEscape(Charset charset, long offset, byte[] src, int sp, int length) {
+        UnknownEscape event = new UnknownEscape();
+        if (event.shouldCommit()) {
+            StringBuilder sb = new StringBuilder("ESC");
+            for (int i = sp; i < sp + length; i++) {
+                sb.append(' ').append(String.format("%02X", src[i] & 0xff));
+            }
+            event.charset = charset.name();
+            event.offset = offset;
+            event.sequence = sb.toString();
+            event.commit();
+        }
+    }
+
+    @Name("org.xbib.charset.SlowDecode")
+    @Label("Slow Decode")
+    @Description("A decode call on a bibliographic charset which took longer than the threshold")
+    @Category({ "xbib", "Charset" })
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class SlowDecode extends Event {
+
+        @Label("Charset")
+        String charset;
+
+        @Label("Offset")
+        @Description("The offset of the first input byte")
+        long offset;
+
+        @Label("Input Size")
+        @DataAmount
+        long inputSize;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Chars Written")
+        long charsWritten;
+
+        @Label("Result")
+        String result;
+    }
+
+    @Name("org.xbib.charset.DecoderRollback")
+    @Label("Decoder Rollback")
+    @Description("A single byte decoder gave a byte back, at too many combining bytes or at a full output")
+    @Category({ "xbib", "Charset" })
+    @StackTrace(false)
+    static final class DecoderRollback extends Event {
+
+        @Label("Charset")
+        String charset;
+
+        @Label("Offset")
+        long offset;
+
+        @Label("Combining Bytes")
+        int combining;
+
+        @Label("Malformed")
+        boolean malformed;
+    }
+
+    @Name("org.xbib.charset.UnknownEscape")
+    @Label("Unknown Escape Sequence")
+    @Description("An ANSEL escape sequence which designates no known graphic set, it is skipped")
+    @Category({ "xbib", "Charset" })
+    @StackTrace(false)
+    static final class UnknownEscape extends Event {
+
+        @Label("Charset")
+        String charset;
+
+        @Label("Offset")
+        long offset;
+
+        @Label("Sequence")
+        String sequence;
+    }
+}
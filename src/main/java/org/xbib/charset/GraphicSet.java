@@ -0,0 +1,272 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.util.List;
+
+/**
+ * A graphic set of MARC-8, compiled from a character set of the code tables.
+ *
+ * Every byte has an int entry with the character in the low 16 bits and flags above.
+ * Entries are computed for all bytes, also outside of the G0 and G1 ranges, so a decoder
+ * needs one array load per byte. Multibyte codes of the EACC set are kept in an
+ * open addressing table with the 24 bit code as key.
+ *
+ * For encoding, every character has an int code with up to three bytes and the length,
+ * built from the Unicode map of the character set. Only codes which decode to the
+ * character again are kept.
+ */
+final class GraphicSet {
+
+    /**
+     * The character is a combining character and precedes its base character.
+     */
+    static final int COMBINING = 0x10000;
+
+    /**
+     * The byte is skipped, it has no Unicode equivalent.
+     */
+    static final int SKIP = 0x20000;
+
+    /**
+     * The byte is the first byte of a three byte code, see {@link #entry(int, int, int)}.
+     */
+    static final int MULTIBYTE = 0x40000;
+
+    /**
+     * The byte starts an escape sequence.
+     */
+    static final int ESCAPE = 0x80000;
+
+    /**
+     * The byte or code is in the graphic range but has no character, the byte is passed through.
+     */
+    static final int UNMAPPED = 0x100000;
+
+    /**
+     * Any of the flags, an entry without these is a plain character.
+     */
+    static final int SPECIAL = COMBINING | SKIP | MULTIBYTE | ESCAPE | UNMAPPED;
+
+    /**
+     * The code is a combining character.
+     */
+    static final int COMBINING_CODE = 0x4000000;
+
+    private static final int LENGTH_SHIFT = 24;
+
+    private final String name;
+
+    private final int[] entries;
+
+    private final int[] keys;
+
+    private final int[] values;
+
+    private final int[][] codes;
+
+    GraphicSet(AnselCodeTableParser.CharacterSet characterSet) {
+        this(characterSet.getName(), codes(characterSet.getCodes()), characters(characterSet.getCodes()));
+    }
+
+    /**
+     * @param name the name of the character set
+     * @param codes the codes of the character set in the order of the code table, a code with the same
+     *              bytes or the same character as an earlier code is ignored
+     * @param characters the characters of the codes
+     */
+    GraphicSet(String name, int[] codes, char[] characters) {
+        this.name = name;
+        this.entries = new int[256];
+        boolean multibyte = codes.length > 0 && length(codes[codes.length - 1]) == 3;
+        int capacity = multibyte ? Integer.highestOneBit(codes.length * 2) * 2 : 1;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        for (int b = 0; b < 256; b++) {
+            entries[b] = !isGraphic(b) ? fallback(b) : multibyte ? MULTIBYTE : fallback(b) | UNMAPPED;
+        }
+        // backwards, so the first code wins
+        for (int n = codes.length - 1; n >= 0; n--) {
+            int code = codes[n];
+            int b = code & 0xff;
+            if (!isGraphic(b)) {
+                // codes outside of the G0 and G1 ranges are never looked up
+                continue;
+            }
+            char ch = characters[n];
+            int entry = ch == 0 ? SKIP : ch | ((code & COMBINING_CODE) != 0 || isDiacritic(b) ? COMBINING : 0);
+            if (!multibyte && length(code) == 1) {
+                entries[b] = entry;
+            } else if (multibyte && length(code) == 3) {
+                int key = b << 16 | (code & 0xff00) | (code >>> 16) & 0xff;
+                int i = index(key);
+                while (keys[i] != 0 && keys[i] != key) {
+                    i = (i + 1) & (keys.length - 1);
+                }
+                keys[i] = key;
+                values[i] = entry;
+            }
+        }
+        this.codes = new int[256][];
+        for (int n = codes.length - 1; n >= 0; n--) {
+            int code = codes[n];
+            char ch = characters[n];
+            int b = code & 0xff;
+            int entry = length(code) == 3 ? entry(b, (code >>> 8) & 0xff, (code >>> 16) & 0xff) : entry(b);
+            boolean decodable = isGraphic(b) && (entry & (SKIP | MULTIBYTE)) == 0 && (char) entry == ch;
+            if (this.codes[ch >>> 8] == null) {
+                if (!decodable) {
+                    continue;
+                }
+                this.codes[ch >>> 8] = new int[256];
+            }
+            this.codes[ch >>> 8][ch & 0xff] = decodable ?
+                    (code & ~COMBINING_CODE) | ((entry & COMBINING) != 0 ? COMBINING_CODE : 0) : 0;
+        }
+    }
+
+    /**
+     * @param codes the codes of a character set
+     * @return the codes with the bytes, the length, and the combining flag
+     */
+    static int[] codes(List<AnselCodeTableParser.Code> codes) {
+        int[] result = new int[codes.size()];
+        for (int n = 0; n < result.length; n++) {
+            AnselCodeTableParser.Code code = codes.get(n);
+            String marc = code.getMarc();
+            int value = marc.length() << LENGTH_SHIFT | (code.isCombining() ? COMBINING_CODE : 0);
+            for (int i = 0; i < marc.length(); i++) {
+                value |= marc.charAt(i) << (8 * i);
+            }
+            result[n] = value;
+        }
+        return result;
+    }
+
+    /**
+     * @param codes the codes of a character set
+     * @return the characters of the codes
+     */
+    static char[] characters(List<AnselCodeTableParser.Code> codes) {
+        char[] result = new char[codes.size()];
+        for (int n = 0; n < result.length; n++) {
+            result[n] = codes.get(n).getUcs();
+        }
+        return result;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param b the unsigned byte value
+     * @return the entry of the byte
+     */
+    int entry(int b) {
+        return entries[b];
+    }
+
+    /**
+     * @param b1 the unsigned first byte value
+     * @param b2 the unsigned second byte value
+     * @param b3 the unsigned third byte value
+     * @return the entry of the three byte code
+     */
+    int entry(int b1, int b2, int b3) {
+        int key = b1 << 16 | b2 << 8 | b3;
+        int i = index(key);
+        int k;
+        while ((k = keys[i]) != 0) {
+            if (k == key) {
+                return values[i];
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        return fallback(b1) | UNMAPPED;
+    }
+
+    /**
+     * @param ch the character
+     * @return the code of the character, or 0 if the graphic set does not contain it
+     */
+    int code(char ch) {
+        int[] page = codes[ch >>> 8];
+        return page != null ? page[ch & 0xff] : 0;
+    }
+
+    /**
+     * @param code a code
+     * @return the number of bytes of the code
+     */
+    static int length(int code) {
+        return (code >>> LENGTH_SHIFT) & 0x3;
+    }
+
+    /**
+     * @param code a code
+     * @return true if the code is in the G1 range, false if it is in the G0 range
+     */
+    static boolean isHigh(int code) {
+        return (code & 0x80) != 0;
+    }
+
+    private int index(int key) {
+        return (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(keys.length)) & (keys.length - 1);
+    }
+
+    /**
+     * Bytes without a code are passed through, bytes from 0xE0 on are diacritics.
+     */
+    private static int fallback(int b) {
+        if (b == 0x1B) {
+            return ESCAPE;
+        }
+        if (b == 0) {
+            return SKIP;
+        }
+        return isDiacritic(b) ? b | COMBINING : b;
+    }
+
+    private static boolean isGraphic(int b) {
+        return (b >= 0x21 && b <= 0x7E) || (b >= 0xA1 && b <= 0xFE);
+    }
+
+    private static boolean isDiacritic(int b) {
+        return b >= 0xE0;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
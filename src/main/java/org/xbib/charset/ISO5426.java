@@ -68,6 +68,13 @@ public class ISO5426 extends Charset {
 
     private static final Map<Character, Byte> charToByteTable = newMabByteToCharMap();
 
+    private static final CompositionTable compositionTable =
+            new CompositionTable(byteToCharTable, b -> b > 0xC0 && b < 0xDF);
+
+    private static final EncodingTable encodingTable = new EncodingTable(charToByteTable, true);
+
+    private static final EncodingTable directEncodingTable = new EncodingTable(charToByteTable, false);
+
     private final boolean isNFCOutput;
 
     public ISO5426() {
@@ -208,33 +215,14 @@ public class ISO5426 extends Charset {
     private static class MabDecoder extends SingleByteDecoder {
 
         MabDecoder(Charset cs) {
-            super(cs);
-        }
-
-        @Override
-        public char byteToChar(byte b) {
-            return byteToCharTable[b & 0xFF];
-        }
-
-        @Override
-        public boolean isCombiningCharacter(byte b) {
-            return (b & 0xFF) > 0xC0 && (b & 0xFF) < 0xDF;
+            super(cs, compositionTable);
         }
     }
 
     private static class MabEncoder extends SingleByteEncoder {
 
         MabEncoder(Charset cs) {
-            super(cs);
-        }
-
-        @Override
-        public byte charToByte(char c) {
-            Byte b = charToByteTable.get(c);
-            if (b == null) {
-                return 0;
-            }
-            return b;
+            super(cs, encodingTable, directEncodingTable);
         }
     }
 
@@ -47,6 +47,13 @@ public class PicaCharset extends Charset {
 
     private static final Map<Character, Byte> CHAR_TO_BYTE_MAP = newCharToByteMap();
 
+    private static final CompositionTable COMPOSITION_TABLE =
+            new CompositionTable(BYTE_TO_CHAR_MAP, b -> b >= 0xE0 && b <= 0xFE);
+
+    private static final EncodingTable ENCODING_TABLE = new EncodingTable(CHAR_TO_BYTE_MAP, true);
+
+    private static final EncodingTable DIRECT_ENCODING_TABLE = new EncodingTable(CHAR_TO_BYTE_MAP, false);
+
     private final boolean isNFCOutput;
 
     public PicaCharset() {
@@ -291,33 +298,14 @@ public class PicaCharset extends Charset {
     private static class PicaDecoder extends SingleByteDecoder {
 
         PicaDecoder(Charset cs) {
-            super(cs);
-        }
-
-        @Override
-        public char byteToChar(byte b) {
-            return BYTE_TO_CHAR_MAP[b & 0xFF];
-        }
-
-        @Override
-        public boolean isCombiningCharacter(byte b) {
-            return (b & 0xFF) >= 0xE0 && (b & 0xFF) <= 0xFE;
+            super(cs, COMPOSITION_TABLE);
         }
     }
 
     private static class PicaEncoder extends SingleByteEncoder {
 
         PicaEncoder(Charset cs) {
-            super(cs);
-        }
-
-        @Override
-        public byte charToByte(char c) {
-            Byte b = CHAR_TO_BYTE_MAP.get(c);
-            if (b == null) {
-                return 0;
-            }
-            return b;
+            super(cs, ENCODING_TABLE, DIRECT_ENCODING_TABLE);
         }
     }
 }
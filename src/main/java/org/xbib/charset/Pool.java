@@ -0,0 +1,152 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of objects which are expensive to create and not thread-safe.
+ *
+ * A platform thread keeps one object in a thread-local slot. Virtual threads are many and
+ * short-lived, so they share a fixed array of slots, taken and filled by compare-and-set
+ * without locks. An object is created when no pooled one is available, and dropped when
+ * it is released into a full pool.
+ *
+ * @param <T> the type of the pooled objects
+ */
+final class Pool<T> {
+
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    private final Supplier<? extends T> factory;
+
+    private final AtomicReferenceArray<T> slots;
+
+    private final ThreadLocal<Slot<T>> local = ThreadLocal.withInitial(Slot::new);
+
+    Pool(Supplier<? extends T> factory, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.factory = factory;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * The default capacity, enough for the carrier threads of virtual threads.
+     *
+     * @return the default capacity
+     */
+    static int defaultCapacity() {
+        return 4 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Take an object from the pool, or create one.
+     *
+     * @return the object, owned by the caller until it is released
+     */
+    T borrow() {
+        if (!isVirtual(Thread.currentThread())) {
+            Slot<T> slot = local.get();
+            T value = slot.value;
+            if (value != null) {
+                slot.value = null;
+                return value;
+            }
+        }
+        int length = slots.length();
+        int start = ThreadLocalRandom.current().nextInt(length);
+        for (int i = 0, index = start; i < length; i++, index = index + 1 == length ? 0 : index + 1) {
+            T value = slots.get(index);
+            if (value != null && slots.compareAndSet(index, value, null)) {
+                return value;
+            }
+        }
+        return factory.get();
+    }
+
+    /**
+     * Give an object back to the pool. The caller must not use it afterwards.
+     *
+     * @param value the object, in the state the next borrower expects
+     */
+    void release(T value) {
+        if (!isVirtual(Thread.currentThread())) {
+            Slot<T> slot = local.get();
+            if (slot.value == null) {
+                slot.value = value;
+                return;
+            }
+        }
+        int length = slots.length();
+        int start = ThreadLocalRandom.current().nextInt(length);
+        for (int i = 0, index = start; i < length; i++, index = index + 1 == length ? 0 : index + 1) {
+            if (slots.get(index) == null && slots.compareAndSet(index, null, value)) {
+                return;
+            }
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * {@code Thread.isVirtual()} is Java 21 API.
+     */
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static final class Slot<T> {
+
+        T value;
+    }
+}
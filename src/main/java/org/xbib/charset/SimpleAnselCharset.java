@@ -32,6 +32,7 @@
 package org.xbib.charset;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -43,7 +44,6 @@ import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
@@ -55,15 +55,16 @@ import java.util.TreeMap;
  */
 public class SimpleAnselCharset extends Charset {
 
-    private final Map<Character, byte[]> mapping;
+    private final DecodingTable decodingTable;
 
-    private final Map<Byte, ReverseMappingEntity> reverseMapping;
+    private final ByteSequences byteSequences;
 
     public SimpleAnselCharset() {
         super("SIMPLE_ANSEL", BibliographicCharsetProvider.aliasesFor("SIMPLE_ANSEL"));
-        this.mapping = createMapping(getClass().getResourceAsStream("ansel-mapping.txt"));
-        Objects.requireNonNull(this.mapping);
-        reverseMapping = createReverseMapping(mapping);
+        Map<Character, byte[]> mapping = createMapping(getClass().getResourceAsStream("ansel-mapping.txt"));
+        Objects.requireNonNull(mapping);
+        this.decodingTable = new DecodingTable(mapping);
+        this.byteSequences = new ByteSequences(mapping);
     }
 
     private static Map<Character, byte[]> createMapping(InputStream mappingStream) {
@@ -104,12 +105,12 @@ public class SimpleAnselCharset extends Charset {
 
     @Override
     public CharsetDecoder newDecoder() {
-        return new Decoder(this, reverseMapping);
+        return new Decoder(this, decodingTable);
     }
 
     @Override
     public CharsetEncoder newEncoder() {
-        return new Encoder(this);
+        return new Encoder(this, byteSequences);
     }
 
     @Override
@@ -117,157 +118,410 @@ public class SimpleAnselCharset extends Charset {
         return displayName().equals(cs.displayName());
     }
 
-    private static Map<Byte, ReverseMappingEntity> createReverseMapping(Map<Character, byte[]> mapping) {
-        Map<Byte, ReverseMappingEntity> rev = new TreeMap<>();
-        for (Map.Entry<Character, byte[]> e : mapping.entrySet()) {
-            Map<Byte, ReverseMappingEntity> ptr = rev;
-            Character ch = e.getKey();
-            for (int i = 0; i < e.getValue().length; i++) {
-                Byte b = e.getValue()[i];
-                ReverseMappingEntity ent = ptr.get(b);
-                if (ent == null) {
-                    ent = new ReverseMappingEntity();
-                    ptr.put(b, ent);
+    /**
+     * The byte sequences of the mapping, compiled to the transition table of a trie.
+     *
+     * A transition is an int with the target state above {@link #STATE_SHIFT}, the flags
+     * {@link #MATCH} and {@link #INNER}, and the character of the target state in the low 16 bits.
+     * Zero means there is no transition. The transitions of state s are at s * 256.
+     */
+    private static final class DecodingTable {
+
+        /**
+         * The target state completes a byte sequence of the mapping.
+         */
+        static final int MATCH = 0x10000;
+
+        /**
+         * The target state is a prefix of a longer byte sequence.
+         */
+        static final int INNER = 0x20000;
+
+        static final int STATE_SHIFT = 18;
+
+        private final int[] transitions;
+
+        private final int depth;
+
+        DecodingTable(Map<Character, byte[]> mapping) {
+            // states are numbered by prefix, the root is state 0
+            Map<String, Integer> states = new HashMap<>();
+            states.put("", 0);
+            int depth = 0;
+            for (byte[] bytes : mapping.values()) {
+                depth = Math.max(depth, bytes.length);
+                for (int i = 1; i <= bytes.length; i++) {
+                    states.putIfAbsent(new String(bytes, 0, i, StandardCharsets.ISO_8859_1), states.size());
                 }
-                if (i + 1 == e.getValue().length) {
-                    ent.setCharacter(ch);
-                } else {
-                    ptr = ent.getMapping();
+            }
+            int[] transitions = new int[states.size() * 256];
+            for (Map.Entry<String, Integer> entry : states.entrySet()) {
+                String prefix = entry.getKey();
+                if (!prefix.isEmpty()) {
+                    int parent = states.get(prefix.substring(0, prefix.length() - 1));
+                    int b = prefix.charAt(prefix.length() - 1);
+                    transitions[parent << 8 | b] |= entry.getValue() << STATE_SHIFT;
+                    if (prefix.length() > 1) {
+                        int grandparent = states.get(prefix.substring(0, prefix.length() - 2));
+                        transitions[grandparent << 8 | prefix.charAt(prefix.length() - 2)] |= INNER;
+                    }
                 }
             }
+            for (Map.Entry<Character, byte[]> entry : mapping.entrySet()) {
+                byte[] bytes = entry.getValue();
+                String prefix = new String(bytes, 0, bytes.length, StandardCharsets.ISO_8859_1);
+                int parent = states.get(prefix.substring(0, prefix.length() - 1));
+                transitions[parent << 8 | (bytes[bytes.length - 1] & 0xff)] |= MATCH | entry.getKey();
+            }
+            this.transitions = transitions;
+            this.depth = depth;
         }
-        return rev;
     }
 
-    private static class ReverseMappingEntity {
+    /**
+     * Decodes the longest byte sequence of the mapping. A byte which does not start a
+     * byte sequence of the mapping is decoded to the character with the same value.
+     * The bytes of an unfinished sequence are kept in a small ring, so sequences may span
+     * input buffers.
+     */
+    private static class Decoder extends ArrayDecoder {
 
-        private final TreeMap<Byte, ReverseMappingEntity> mapping = new TreeMap<>();
+        private final int[] transitions;
 
-        private Character character;
+        private final byte[] ring;
 
-        public Character getCharacter() {
-            return character;
-        }
+        private final int mask;
 
-        public void setCharacter(Character ch) {
-            this.character = ch;
-        }
+        private int head;
 
-        public Map<Byte, ReverseMappingEntity> getMapping() {
-            return mapping;
-        }
-    }
+        private int length;
+
+        private int scanned;
+
+        private int state;
 
-    private static class Decoder extends CharsetDecoder {
+        private char match;
 
-        private final Map<Byte, ReverseMappingEntity> reverseMapping;
+        private int matchLength;
 
-        private final LinkedList<Byte> buffer = new LinkedList<>();
+        Decoder(Charset charset, DecodingTable decodingTable) {
+            super(charset, 1.0f, 1.0f);
+            this.transitions = decodingTable.transitions;
+            this.ring = new byte[Integer.highestOneBit(decodingTable.depth) << 1];
+            this.mask = ring.length - 1;
+        }
 
-        Decoder(Charset charset, Map<Byte, ReverseMappingEntity> reverseMapping) {
-            super(charset, 2.2f, 3.0f);
-            this.reverseMapping = reverseMapping;
+        @Override
+        protected CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
+            return decode(in, out);
+        }
+
+        @Override
+        protected CoderResult flushBuffer(CharBuffer out) {
+            return decode(null, out);
         }
 
         @Override
-        protected CoderResult decodeLoop(final ByteBuffer in, CharBuffer out) {
-            ReverseMappingBuffer rmb = new ReverseMappingBuffer(reverseMapping, buffer) {
-                @Override
-                protected Byte onNextByte() {
-                    return in.hasRemaining() ? in.get() : null;
+        protected void resetState() {
+            head = 0;
+            length = 0;
+            scanned = 0;
+            state = 0;
+            matchLength = 0;
+        }
+
+        /**
+         * Decode the run of bytes at the start of the input which are a complete byte sequence,
+         * or no byte sequence at all, mostly ASCII.
+         */
+        private void decodePlain(ByteBuffer in, CharBuffer out) {
+            byte[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            char[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int n = Math.min(in.remaining(), out.remaining());
+            int i = 0;
+            while (i < n) {
+                int b = src[sp + i] & 0xff;
+                int transition = transitions[b];
+                if ((transition & DecodingTable.INNER) != 0) {
+                    break;
+                }
+                if (transition == 0 && b >= 0x80) {
+                    // passed through, but not mapped
+                    error(offset(in) + i, b);
                 }
-            };
-            while (in.hasRemaining() || rmb.hasRemaining()) {
-                if (out.hasRemaining()) {
-                    Character ch = rmb.nextCharacter();
-                    out.append(ch);
-                } else {
+                dst[dp + i] = transition != 0 ? (char) transition : (char) b;
+                i++;
+            }
+            in.position(in.position() + i);
+            out.position(out.position() + i);
+        }
+
+        /**
+         * @param in the input, or null at the end of the input
+         * @param out the output
+         * @return the coder result
+         */
+        private CoderResult decode(ByteBuffer in, CharBuffer out) {
+            while (true) {
+                if (length == 0) {
+                    if (in == null) {
+                        return CoderResult.UNDERFLOW;
+                    }
+                    decodePlain(in, out);
+                    if (!in.hasRemaining()) {
+                        return CoderResult.UNDERFLOW;
+                    }
+                    if ((transitions[in.get(in.position()) & 0xff] & DecodingTable.INNER) == 0) {
+                        return CoderResult.OVERFLOW;
+                    }
+                }
+                int transition = 0;
+                if (scanned < length) {
+                    transition = transitions[state << 8 | (ring[(head + scanned) & mask] & 0xff)];
+                    if (transition != 0) {
+                        scanned++;
+                    }
+                } else if (in != null) {
+                    if (!in.hasRemaining()) {
+                        return CoderResult.UNDERFLOW;
+                    }
+                    byte b = in.get(in.position());
+                    transition = transitions[state << 8 | (b & 0xff)];
+                    if (transition != 0) {
+                        in.position(in.position() + 1);
+                        ring[(head + length) & mask] = b;
+                        length++;
+                        scanned++;
+                    }
+                }
+                if (transition != 0) {
+                    state = transition >>> DecodingTable.STATE_SHIFT;
+                    if ((transition & DecodingTable.MATCH) != 0) {
+                        match = (char) transition;
+                        matchLength = scanned;
+                    }
+                    if ((transition & DecodingTable.INNER) != 0) {
+                        continue;
+                    }
+                }
+                // the longest byte sequence is found
+                if (!out.hasRemaining()) {
                     return CoderResult.OVERFLOW;
                 }
+                int consumed = matchLength > 0 ? matchLength : 1;
+                if (matchLength == 0 && ring[head] < 0) {
+                    // a high byte without a byte sequence is passed through, the ring holds consumed input
+                    error((in != null ? offset(in) : consumed()) - length, ring[head] & 0xff);
+                }
+                out.put(matchLength > 0 ? match : (char) (ring[head] & 0xff));
+                head = (head + consumed) & mask;
+                length -= consumed;
+                scanned = 0;
+                state = 0;
+                matchLength = 0;
             }
-            return CoderResult.UNDERFLOW;
         }
     }
 
-    private class Encoder extends CharsetEncoder {
+    /**
+     * The byte sequences of the mapping in one array, with a paged table of their offsets by character.
+     *
+     * An entry is an int with the offset above {@link #OFFSET_SHIFT}, the {@link #COMBINING} flag,
+     * and the length in the low two bits. Zero means the character is not mapped.
+     * Characters below 0x80 are encoded as themselves.
+     */
+    private static final class ByteSequences {
+
+        /**
+         * The character is a combining character, its bytes precede the bytes of its base character.
+         */
+        static final int COMBINING = 0x4;
 
-        Encoder(Charset charset) {
-            super(charset, 2.2f, 3.0f);
+        static final int OFFSET_SHIFT = 3;
+
+        private final byte[] bytes;
+
+        private final int[][] pages;
+
+        ByteSequences(Map<Character, byte[]> mapping) {
+            Map<Character, byte[]> sorted = new TreeMap<>(mapping);
+            for (char ch = 0; ch < 0x80; ch++) {
+                sorted.put(ch, new byte[]{(byte) ch});
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            this.pages = new int[256][];
+            for (Map.Entry<Character, byte[]> e : sorted.entrySet()) {
+                char ch = e.getKey();
+                byte[] sequence = e.getValue();
+                int type = Character.getType(ch);
+                boolean combining = type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                        || type == Character.COMBINING_SPACING_MARK;
+                if (pages[ch >>> 8] == null) {
+                    pages[ch >>> 8] = new int[256];
+                }
+                pages[ch >>> 8][ch & 0xff] = out.size() << OFFSET_SHIFT | (combining ? COMBINING : 0) | sequence.length;
+                out.write(sequence, 0, sequence.length);
+            }
+            this.bytes = out.toByteArray();
+        }
+
+        int entry(char ch) {
+            int[] page = pages[ch >>> 8];
+            return page != null ? page[ch & 0xff] : 0;
+        }
+    }
+
+    /**
+     * Encodes characters by their byte sequences. Combining characters are written before
+     * their base character, as in MARC, so a base character is held back until the next
+     * character which is not combining.
+     */
+    private static class Encoder extends ArrayEncoder {
+
+        /**
+         * The maximum number of combining characters after a base character.
+         */
+        private static final int MAX_COMBINING = 32;
+
+        private final byte[] bytes;
+
+        private final ByteSequences byteSequences;
+
+        private final int[] combining;
+
+        private int combiningLength;
+
+        private int base;
+
+        Encoder(Charset charset, ByteSequences byteSequences) {
+            super(charset, 1.0f, 3.0f);
+            this.bytes = byteSequences.bytes;
+            this.byteSequences = byteSequences;
+            this.combining = new int[MAX_COMBINING];
         }
 
         @Override
-        protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+        protected CoderResult encodeArrays(CharBuffer in, ByteBuffer out) {
             while (in.hasRemaining()) {
-                if (out.hasRemaining()) {
-                    char unicode = in.get();
-                    byte[] ansel;
-                    if (unicode <= 0x7f) {
-                        ansel = new byte[2];
-                        ansel[0] = (byte) ((unicode >> 8) & 0xff);
-                        ansel[1] = (byte) ((unicode) & 0xff);
-                    } else {
-                        ansel = mapping.get(unicode);
-                        if (ansel == null) {
-                            return CoderResult.unmappableForLength(2);
+                if (base != 0) {
+                    char c = in.get(in.position());
+                    int entry = byteSequences.entry(c);
+                    if ((entry & ByteSequences.COMBINING) != 0) {
+                        if (combiningLength == MAX_COMBINING) {
+                            return CoderResult.malformedForLength(1);
                         }
+                        combining[combiningLength++] = entry;
+                        in.position(in.position() + 1);
+                        continue;
                     }
-                    boolean started = false;
-                    for (int i = 0; i < ansel.length; i++) {
-                        if (started || ansel[i] != 0 || i == ansel.length - 1) {
-                            out.put(ansel[i]);
-                            started = true;
+                    if (entry == 0 && Character.getType(c) == Character.NON_SPACING_MARK) {
+                        // an unmappable mark still belongs to the cluster, the base is kept for the marks after it
+                        return CoderResult.unmappableForLength(1);
+                    }
+                    if (!writeBase(out)) {
+                        return CoderResult.OVERFLOW;
+                    }
+                }
+                encodeAscii(in, out);
+                if (!in.hasRemaining()) {
+                    break;
+                }
+                char c = in.get();
+                int entry = byteSequences.entry(c);
+                if (entry == 0) {
+                    in.position(in.position() - 1);
+                    if (Character.isHighSurrogate(c)) {
+                        if (in.remaining() < 2) {
+                            return CoderResult.UNDERFLOW;
+                        }
+                        if (Character.isLowSurrogate(in.get(in.position() + 1))) {
+                            return CoderResult.unmappableForLength(2);
                         }
                     }
-                } else {
-                    return CoderResult.OVERFLOW;
+                    return Character.isSurrogate(c) ? CoderResult.malformedForLength(1) :
+                            CoderResult.unmappableForLength(1);
+                }
+                if ((entry & ByteSequences.COMBINING) != 0) {
+                    // a combining character without a base character
+                    if (out.remaining() < length(entry)) {
+                        in.position(in.position() - 1);
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(bytes, offset(entry), length(entry));
+                    continue;
                 }
+                base = entry;
             }
             return CoderResult.UNDERFLOW;
         }
-    }
-
-    abstract static class ReverseMappingBuffer {
-
-        private final Map<Byte, ReverseMappingEntity> rm;
 
-        private final LinkedList<Byte> buffer;
+        @Override
+        protected CoderResult flushBuffer(ByteBuffer out) {
+            return writeBase(out) ? CoderResult.UNDERFLOW : CoderResult.OVERFLOW;
+        }
 
-        ReverseMappingBuffer(Map<Byte, ReverseMappingEntity> rm, LinkedList<Byte> buffer) {
-            this.rm = rm;
-            this.buffer = buffer;
+        @Override
+        protected void implReset() {
+            base = 0;
+            combiningLength = 0;
         }
 
-        boolean hasRemaining() {
-            return !buffer.isEmpty();
+        /**
+         * Copy characters below 0x80 as long as the next character is below 0x80, too,
+         * so it can not be a combining character.
+         */
+        private static void encodeAscii(CharBuffer in, ByteBuffer out) {
+            char[] src = in.array();
+            int sp = in.arrayOffset() + in.position();
+            byte[] dst = out.array();
+            int dp = out.arrayOffset() + out.position();
+            int n = Math.min(in.remaining() - 1, out.remaining());
+            int i = 0;
+            while (i < n && (src[sp + i] | src[sp + i + 1]) < 0x80) {
+                dst[dp + i] = (byte) src[sp + i];
+                i++;
+            }
+            in.position(in.position() + i);
+            out.position(out.position() + i);
         }
 
-        Character nextCharacter() {
-            LinkedList<Byte> queue = new LinkedList<>();
-            ReverseMappingEntity rme = null;
-            Character ch = null;
-            for (Byte b = nextByte(); b != null; b = nextByte()) {
-                queue.addLast(b);
-                rme = rme != null ? rme.getMapping().get(b) : rm.get(b);
-                if (rme == null) {
-                    buffer.addAll(queue);
-                    return ch != null ? ch : Character.valueOf((char) nextByte().byteValue());
-                }
-                if (rme.getCharacter() != null) {
-                    ch = rme.getCharacter();
-                    queue.clear();
-                }
+        /**
+         * Write the base character with its combining characters. The last byte of a byte
+         * sequence is the base letter, the bytes before are diacritics, so the diacritics
+         * of the combining characters go right before the last byte.
+         *
+         * @param out the output
+         * @return false if the output has not enough room, nothing is written then
+         */
+        private boolean writeBase(ByteBuffer out) {
+            if (base == 0) {
+                return true;
+            }
+            int length = length(base);
+            for (int i = 0; i < combiningLength; i++) {
+                length += length(combining[i]);
             }
-            return ch;
+            if (out.remaining() < length) {
+                return false;
+            }
+            out.put(bytes, offset(base), length(base) - 1);
+            for (int i = 0; i < combiningLength; i++) {
+                out.put(bytes, offset(combining[i]), length(combining[i]));
+            }
+            out.put(bytes[offset(base) + length(base) - 1]);
+            base = 0;
+            combiningLength = 0;
+            return true;
         }
 
-        protected abstract Byte onNextByte();
+        private static int offset(int entry) {
+            return entry >>> ByteSequences.OFFSET_SHIFT;
+        }
 
-        private Byte nextByte() {
-            if (!buffer.isEmpty()) {
-                return buffer.pollFirst();
-            } else {
-                return onNextByte();
-            }
+        private static int length(int entry) {
+            return entry & 0x3;
         }
     }
 }
@@ -34,16 +34,54 @@ package org.xbib.charset;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.text.Normalizer;
 
-abstract class SingleByteDecoder extends CharsetDecoder {
+/**
+ * Decoder for single byte character sets with combining bytes preceding the base byte,
+ * driven by a {@link CompositionTable}.
+ *
+ * Combining bytes are held back until their base byte arrives, also across calls, and the
+ * cluster is written to the output as base character followed by the combining characters,
+ * composed to Unicode normalization form C unless switched off. Combining bytes without
+ * a base byte at the end of the input are dropped.
+ */
+abstract class SingleByteDecoder extends ArrayDecoder {
+
+    /**
+     * The maximum number of combining bytes before a base byte.
+     */
+    private static final int MAX_COMBINING = 32;
+
+    private final CompositionTable table;
+
+    private final byte[] combining;
+
+    private final char[] work;
+
+    private final byte[] ranks;
+
+    private final StringBuilder fallback;
+
+    private int combiningLength;
+
+    /**
+     * The offset of the first combining byte since the last reset.
+     */
+    private long combiningOffset;
+
+    private boolean replacementIsNormalized;
 
     private boolean composeCharactersAfterConversion = true;
 
-    SingleByteDecoder(Charset cs) {
+    SingleByteDecoder(Charset cs, CompositionTable table) {
         super(cs, 1.0f, 1.0f);
+        this.table = table;
+        this.combining = new byte[MAX_COMBINING];
+        this.work = new char[table.workSize(MAX_COMBINING)];
+        this.ranks = new byte[work.length];
+        this.fallback = new StringBuilder();
+        this.replacementIsNormalized = Normalizer.isNormalized(replacement(), Normalizer.Form.NFC);
     }
 
     /**
@@ -54,45 +92,165 @@ abstract class SingleByteDecoder extends CharsetDecoder {
     }
 
     @Override
-    protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
-        ByteBuffer inputBuffer = ByteBuffer.allocate(30);
+    protected CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
         while (in.hasRemaining()) {
-            byte c = in.get();
-            inputBuffer.put(c);
-            StringBuilder convertedInputBuffer = null;
-            if (!isCombiningCharacter(c)) {
-                convertedInputBuffer = new StringBuilder();
-                for (int i = inputBuffer.position() - 1; i >= 0; i--) {
-                    char convertedCharacter = byteToChar(inputBuffer.get(i));
-                    String convertedCharacterAsString;
-                    if (convertedCharacter == 0) {
-                        convertedCharacterAsString = replacement();
-                    } else {
-                        convertedCharacterAsString = String
-                                .valueOf(convertedCharacter);
-                    }
-
-                    convertedInputBuffer.append(convertedCharacterAsString);
+            if (combiningLength == 0 && !decodeSimple(in, out)) {
+                break;
+            }
+            int b = in.get() & 0xff;
+            if (table.isCombining(b)) {
+                if (combiningLength == MAX_COMBINING) {
+                    in.position(in.position() - 1);
+                    CharsetEvents.rollback(charset(), offset(in), combiningLength, true);
+                    return CoderResult.malformedForLength(1);
                 }
-                if (composeCharactersAfterConversion) {
-                    convertedInputBuffer =
-                            new StringBuilder(Normalizer.normalize(convertedInputBuffer.toString(), Normalizer.Form.NFC));
+                if (combiningLength == 0) {
+                    combiningOffset = offset(in) - 1;
                 }
-            }
-            if (convertedInputBuffer != null) {
-                if (out.remaining() < convertedInputBuffer.length()) {
-                    in.position(in.position() - inputBuffer.position());
+                combining[combiningLength++] = (byte) b;
+            } else if (combiningLength == 0 && table.isSimple(b)) {
+                if (!out.hasRemaining()) {
+                    in.position(in.position() - 1);
                     return CoderResult.OVERFLOW;
                 }
-                out.append(convertedInputBuffer);
-                inputBuffer.clear();
+                out.put(table.charAt(b));
+            } else if (!decodeCluster(b, offset(in) - 1, out)) {
+                in.position(in.position() - 1);
+                CharsetEvents.rollback(charset(), offset(in), combiningLength, false);
+                return CoderResult.OVERFLOW;
             }
         }
         return CoderResult.UNDERFLOW;
     }
 
-    public abstract boolean isCombiningCharacter(byte c);
+    @Override
+    protected void resetState() {
+        combiningLength = 0;
+    }
+
+    /**
+     * Decode the run of simple bytes at the start of the input, mostly 7-bit bytes.
+     *
+     * @param in the input
+     * @param out the output
+     * @return true if the input has remaining bytes
+     */
+    private boolean decodeSimple(ByteBuffer in, CharBuffer out) {
+        byte[] src = in.array();
+        int sp = in.arrayOffset() + in.position();
+        char[] dst = out.array();
+        int dp = out.arrayOffset() + out.position();
+        int n = Math.min(in.remaining(), out.remaining());
+        int i = 0;
+        while (i < n && table.isSimple(src[sp + i] & 0xff)) {
+            dst[dp + i] = table.charAt(src[sp + i] & 0xff);
+            i++;
+        }
+        in.position(in.position() + i);
+        out.position(out.position() + i);
+        return in.hasRemaining();
+    }
+
+    @Override
+    protected void implReplaceWith(String newReplacement) {
+        replacementIsNormalized = Normalizer.isNormalized(newReplacement, Normalizer.Form.NFC);
+    }
+
+    private boolean decodeCluster(int base, long offset, CharBuffer out) {
+        if (!composeCharactersAfterConversion) {
+            int length = length(base);
+            for (int i = 0; i < combiningLength; i++) {
+                length += length(combining[i] & 0xff);
+            }
+            if (out.remaining() < length) {
+                return false;
+            }
+            put(base, out);
+            for (int i = combiningLength - 1; i >= 0; i--) {
+                put(combining[i] & 0xff, out);
+            }
+            if (CharsetMetrics.ENABLED || recordsErrors()) {
+                replaced(base, offset);
+            }
+        } else if (combiningLength == 0 && table.charAt(base) == 0 && replacementIsNormalized) {
+            if (out.remaining() < replacement().length()) {
+                return false;
+            }
+            out.put(replacement());
+            replaced(base, offset);
+        } else {
+            int n = table.compose(base, combining, combiningLength, work, ranks);
+            if (n >= 0) {
+                if (out.remaining() < n) {
+                    return false;
+                }
+                out.put(work, 0, n);
+            } else {
+                // clusters with unmapped bytes or unusual characters, not covered by the table
+                fallback.setLength(0);
+                append(base, fallback);
+                for (int i = combiningLength - 1; i >= 0; i--) {
+                    append(combining[i] & 0xff, fallback);
+                }
+                String s = Normalizer.normalize(fallback, Normalizer.Form.NFC);
+                if (out.remaining() < s.length()) {
+                    return false;
+                }
+                out.put(s);
+                if (CharsetMetrics.ENABLED || recordsErrors()) {
+                    replaced(base, offset);
+                }
+            }
+            if (CharsetMetrics.ENABLED && combiningLength > 0) {
+                metrics.composed();
+            }
+        }
+        combiningLength = 0;
+        return true;
+    }
+
+    /**
+     * Count and record the unmapped bytes of the cluster, which are replaced.
+     *
+     * @param base the base byte
+     * @param offset the offset of the base byte
+     */
+    private void replaced(int base, long offset) {
+        for (int i = 0; i < combiningLength; i++) {
+            if (table.charAt(combining[i] & 0xff) == 0) {
+                if (CharsetMetrics.ENABLED) {
+                    metrics.replaced();
+                }
+                error(combiningOffset + i, combining[i] & 0xff);
+            }
+        }
+        if (table.charAt(base) == 0) {
+            if (CharsetMetrics.ENABLED) {
+                metrics.replaced();
+            }
+            error(offset, base);
+        }
+    }
 
-    public abstract char byteToChar(byte b);
+    private int length(int b) {
+        return table.charAt(b) != 0 ? 1 : replacement().length();
+    }
 
+    private void put(int b, CharBuffer out) {
+        char ch = table.charAt(b);
+        if (ch != 0) {
+            out.put(ch);
+        } else {
+            out.put(replacement());
+        }
+    }
+
+    private void append(int b, StringBuilder sb) {
+        char ch = table.charAt(b);
+        if (ch != 0) {
+            sb.append(ch);
+        } else {
+            sb.append(replacement());
+        }
+    }
 }
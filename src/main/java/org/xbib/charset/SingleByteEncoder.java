@@ -34,70 +34,161 @@ package org.xbib.charset;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
-import java.text.Normalizer;
 
-abstract class SingleByteEncoder extends CharsetEncoder {
+/**
+ * Encoder for single byte character sets with combining bytes preceding the base byte,
+ * driven by an {@link EncodingTable}.
+ *
+ * Characters are decomposed unless switched off, and a cluster of a base character and the
+ * following combining characters is written as the combining bytes in reverse order followed
+ * by the base byte. The cluster is held back until its end is seen, also across calls.
+ */
+abstract class SingleByteEncoder extends ArrayEncoder {
+
+    /**
+     * The maximum number of characters in a cluster.
+     */
+    private static final int MAX_CLUSTER = 32;
 
-    private boolean decomposeCharactersBeforeConversion = true;
+    private final EncodingTable decomposingTable;
 
-    SingleByteEncoder(Charset cs) {
-        super(cs, 1.0f, 1.0f);
+    private final EncodingTable directTable;
+
+    private final char[] cluster;
+
+    private EncodingTable table;
+
+    private int clusterLength;
+
+    SingleByteEncoder(Charset cs, EncodingTable decomposingTable, EncodingTable directTable) {
+        super(cs, 1.0f, EncodingTable.MAX_BYTES_PER_CHAR);
+        this.decomposingTable = decomposingTable;
+        this.directTable = directTable;
+        this.cluster = new char[MAX_CLUSTER];
+        this.table = decomposingTable;
     }
 
     /**
      * @param decomposeCharactersBeforeConversion The decomposeCharactersBeforeConversion to set.
      */
     public void setDecomposeCharactersBeforeConversion(boolean decomposeCharactersBeforeConversion) {
-        this.decomposeCharactersBeforeConversion = decomposeCharactersBeforeConversion;
+        this.table = decomposeCharactersBeforeConversion ? decomposingTable : directTable;
     }
 
     @Override
-    protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
-        CharBuffer inputBuffer = CharBuffer.allocate(30);
+    protected CoderResult encodeArrays(CharBuffer in, ByteBuffer out) {
         while (in.hasRemaining()) {
+            if (clusterLength == 0) {
+                encodeAscii(in, out);
+            }
             char c = in.get();
-            String charAsString;
-            if (decomposeCharactersBeforeConversion) {
-                charAsString = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
-            } else {
-                charAsString = String.valueOf(c);
+            if (clusterLength == 0 && table.isQuick(c) && in.hasRemaining()
+                    && !isCombiningCharacter(in.get(in.position()))) {
+                if (!out.hasRemaining()) {
+                    in.position(in.position() - 1);
+                    return CoderResult.OVERFLOW;
+                }
+                out.put((byte) EncodingTable.byteAt(table.entry(c), 0));
+                continue;
             }
-            if (out.remaining() < inputBuffer.position() + charAsString.length()) {
-                in.position(in.position() - inputBuffer.position() - 1);
+            if (clusterLength > 0 && !isCombiningCharacter(c) && !writeCluster(out)) {
+                in.position(in.position() - 1);
                 return CoderResult.OVERFLOW;
             }
-            if (inputBuffer.position() > 0 && !isCombiningCharacter(c)) {
-                for (int i = inputBuffer.position() - 1; i >= 0; i--) {
-                    convert(inputBuffer.get(i), out);
-                }
-                inputBuffer.clear();
-            }
-            inputBuffer.append(charAsString);
-        }
-        if (inputBuffer.position() == 1) {
-            convert(inputBuffer.get(), out);
-        } else if (inputBuffer.position() > 1) {
-            for (int i = inputBuffer.position() - 1; i >= 0; i--) {
-                convert(inputBuffer.get(i), out);
+            if (clusterLength == MAX_CLUSTER) {
+                in.position(in.position() - 1);
+                return CoderResult.malformedForLength(1);
             }
+            cluster[clusterLength++] = c;
         }
         return CoderResult.UNDERFLOW;
     }
 
-    public abstract byte charToByte(char c);
+    @Override
+    protected CoderResult flushBuffer(ByteBuffer out) {
+        return clusterLength > 0 && !writeCluster(out) ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
+    }
+
+    @Override
+    protected void implReset() {
+        clusterLength = 0;
+    }
+
+    /**
+     * Encode the run of quick 7-bit characters at the start of the input, each followed by
+     * a 7-bit character, so it is not followed by a combining character.
+     * The last character of the input is left to the caller.
+     */
+    private void encodeAscii(CharBuffer in, ByteBuffer out) {
+        char[] src = in.array();
+        int sp = in.arrayOffset() + in.position();
+        byte[] dst = out.array();
+        int dp = out.arrayOffset() + out.position();
+        int n = Math.min(in.remaining() - 1, out.remaining());
+        int i = 0;
+        while (i < n && (src[sp + i] | src[sp + i + 1]) < 0x80 && table.isQuick(src[sp + i])) {
+            dst[dp + i] = table.asciiByte(src[sp + i]);
+            i++;
+        }
+        in.position(in.position() + i);
+        out.position(out.position() + i);
+    }
 
     public boolean isCombiningCharacter(char c) {
-        return c >= '\u0300' && c <= '\u036F';
+        return EncodingTable.isCombiningCharacter(c);
+    }
+
+    private boolean writeCluster(ByteBuffer out) {
+        int length = 0;
+        for (int i = 0; i < clusterLength; i++) {
+            length += length(cluster[i]);
+        }
+        if (out.remaining() < length) {
+            return false;
+        }
+        for (int i = clusterLength - 1; i >= 0; i--) {
+            put(cluster[i], out);
+        }
+        clusterLength = 0;
+        return true;
     }
 
-    private void convert(char c, ByteBuffer out) {
-        byte b = charToByte(c);
-        if (b != 0) {
-            out.put(b);
+    private int length(char c) {
+        int entry = table.entry(c);
+        int length = 0;
+        if (EncodingTable.isComplex(entry)) {
+            String s = table.decomposition(c);
+            for (int i = 0; i < s.length(); i++) {
+                length += length(s.charAt(i));
+            }
         } else {
-            out.put(replacement());
+            for (int i = 0; i < EncodingTable.count(entry); i++) {
+                length += EncodingTable.byteAt(entry, i) >= 0 ? 1 : replacement().length;
+            }
+        }
+        return length;
+    }
+
+    private void put(char c, ByteBuffer out) {
+        int entry = table.entry(c);
+        if (EncodingTable.isComplex(entry)) {
+            String s = table.decomposition(c);
+            for (int i = s.length() - 1; i >= 0; i--) {
+                put(s.charAt(i), out);
+            }
+        } else {
+            for (int i = 0; i < EncodingTable.count(entry); i++) {
+                int b = EncodingTable.byteAt(entry, i);
+                if (b >= 0) {
+                    out.put((byte) b);
+                } else {
+                    out.put(replacement());
+                    if (CharsetMetrics.ENABLED) {
+                        metrics.replaced();
+                    }
+                }
+            }
         }
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Bulk table look-up with the Vector API. Blocks of bytes are widened to characters
+ * in one step, then the high bytes of the block are looked up one by one.
+ * Only loaded if the {@code jdk.incubator.vector} module is present.
+ */
+final class VectorByteTable {
+
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(SHORTS.vectorBitSize() / 2));
+
+    private VectorByteTable() {
+    }
+
+    static void decode(byte[] src, int sp, char[] dst, int dp, int length, char[] lookup, boolean ascii) {
+        int i = 0;
+        if (ascii) {
+            int bound = BYTES.loopBound(length);
+            for (; i < bound; i += BYTES.length()) {
+                ByteVector v = ByteVector.fromArray(BYTES, src, sp + i);
+                ((ShortVector) v.convertShape(VectorOperators.B2S, SHORTS, 0)).intoCharArray(dst, dp + i);
+                long high = v.lt((byte) 0).toLong();
+                while (high != 0) {
+                    int k = i + Long.numberOfTrailingZeros(high);
+                    dst[dp + k] = lookup[src[sp + k] & 0xFF];
+                    high &= high - 1;
+                }
+            }
+        }
+        for (; i < length; i++) {
+            dst[dp + i] = lookup[src[sp + i] & 0xFF];
+        }
+    }
+}
@@ -32,13 +32,32 @@
 package org.xbib.charset;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -71,4 +90,201 @@ public class AnselCharsetTest {
         assertEquals(7, s.length());
     }
 
+    @Test
+    public void testGraphicSets() throws Exception {
+        Map<String, AnselCodeTableParser.CharacterSet> characterSets = new HashMap<>();
+        AnselCodeTableParser parser = new AnselCodeTableParser(getClass().getResourceAsStream("codetables.xml"));
+        for (AnselCodeTableParser.CodeTable codeTable : parser.getCodeTables()) {
+            for (AnselCodeTableParser.CharacterSet characterSet : codeTable.getCharacterSets()) {
+                characterSets.put(characterSet.getIsoCode(), characterSet);
+            }
+        }
+        String[] escapes = {"s", "g", "b", "p", "(B", "(N", ",S", ")N", "-Q", "$1", "!E", "(2", ")3", ")4", "(1", ")1"};
+        Random random = new Random(1L);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StringBuilder expected = new StringBuilder();
+        StringBuilder diacritics = new StringBuilder();
+        AnselCodeTableParser.CharacterSet g0 = characterSets.get("42");
+        AnselCodeTableParser.CharacterSet g1 = characterSets.get("45");
+        for (int i = 0; i < 100000; i++) {
+            if (random.nextInt(20) == 0) {
+                String escape = escapes[random.nextInt(escapes.length)];
+                bytes.write(0x1B);
+                bytes.write(escape.getBytes(StandardCharsets.US_ASCII), 0, escape.length());
+                String isoCode = escape.equals("s") ? "42" : escape.equals("!E") ? "45"
+                        : String.format("%02X", (int) escape.charAt(escape.length() - 1));
+                if (escape.startsWith(")") || escape.startsWith("-")) {
+                    g1 = characterSets.get(isoCode);
+                } else {
+                    g0 = characterSets.get(isoCode);
+                }
+                continue;
+            }
+            int b = random.nextInt(256);
+            if (b == 0x1B) {
+                continue;
+            }
+            AnselCodeTableParser.CharacterSet characterSet = b >= 0x21 && b <= 0x7E ? g0 :
+                    b >= 0xA1 && b <= 0xFE ? g1 : null;
+            String marc = String.valueOf((char) b);
+            if (characterSet != null && characterSet.getLength() == 3) {
+                // the codes of the EACC set are in the G0 range
+                marc = b > 0x80 || random.nextBoolean() ? marc + marc + marc : characterSet.getMarc().keySet().stream()
+                        .skip(random.nextInt(characterSet.getMarc().size())).findFirst().orElse(marc);
+            }
+            for (int j = 0; j < marc.length(); j++) {
+                bytes.write(marc.charAt(j));
+            }
+            // the former decoder, with lookups by strings
+            AnselCodeTableParser.Code code = characterSet != null ? characterSet.getMarc().get(marc) : null;
+            char ch = code != null ? code.getUcs() : marc.charAt(0);
+            if (ch == 0) {
+                continue;
+            }
+            if (marc.charAt(0) >= 0xE0 || (code != null && code.isCombining())) {
+                diacritics.append(ch);
+            } else {
+                expected.append(ch).append(diacritics);
+                diacritics.setLength(0);
+            }
+        }
+        CharsetDecoder decoder = Charset.forName("ANSEL").newDecoder();
+        assertEquals(expected.toString(), decoder.decode(ByteBuffer.wrap(bytes.toByteArray())).toString());
+    }
+
+    @Test
+    public void testLazyGraphicSets() throws Exception {
+        AnselCharset charset = new AnselCharset();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<GraphicSet>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executorService.submit(() -> charset.graphicSet('1')));
+            }
+            for (Future<GraphicSet> future : futures) {
+                assertSame(charset.graphicSet('1'), future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals("Chinese, Japanese, Korean (EACC)", charset.graphicSet('1').getName());
+    }
+
+    @Test
+    public void testEncoder() throws Exception {
+        Charset charset = Charset.forName("ANSEL");
+        assertEquals("M\u00e8uller, Jos\u00e2e",
+                new String("M\u00fcller, Jos\u00e9".getBytes(charset), StandardCharsets.ISO_8859_1));
+        // one escape sequence for the Cyrillic field, punctuation is in the Cyrillic set
+        assertEquals("\u001b(NmOSKWA, rOSSIQ.\u001b(B",
+                new String("\u041c\u043e\u0441\u043a\u0432\u0430, \u0420\u043e\u0441\u0441\u0438\u044f."
+                        .getBytes(charset), StandardCharsets.ISO_8859_1));
+        assertEquals("\u001b$1!04!BX\u001b(B", new String("\u4e2d\u6587".getBytes(charset), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testEncoderRoundTrip() throws Exception {
+        Charset charset = Charset.forName("ANSEL");
+        CharsetEncoder encoder = charset.newEncoder();
+        StringBuilder bases = new StringBuilder();
+        StringBuilder marks = new StringBuilder();
+        AnselCodeTableParser parser = new AnselCodeTableParser(getClass().getResourceAsStream("codetables.xml"));
+        for (AnselCodeTableParser.CodeTable codeTable : parser.getCodeTables()) {
+            for (AnselCodeTableParser.CharacterSet characterSet : codeTable.getCharacterSets()) {
+                for (AnselCodeTableParser.Code code : characterSet.getUnicode().values()) {
+                    char ch = code.getUcs();
+                    if (ch == 0 || !encoder.canEncode(ch)) {
+                        continue;
+                    }
+                    // characters in the upper half of a G0 set are encoded by their decomposition
+                    String single = String.valueOf(ch);
+                    if (code.isCombining()) {
+                        marks.append(ch);
+                    } else if (single.equals(new String(single.getBytes(charset), charset))) {
+                        bases.append(ch);
+                    }
+                }
+            }
+        }
+        Random random = new Random(1L);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append(bases.charAt(random.nextInt(bases.length())));
+            for (int j = random.nextInt(4) - 1; j > 0; j--) {
+                sb.append(marks.charAt(random.nextInt(marks.length())));
+            }
+        }
+        String s = sb.toString();
+        assertEquals(s, new String(s.getBytes(charset), charset));
+    }
+
+    @Test
+    public void testIncrementalDecoding() throws Exception {
+        Charset charset = Charset.forName("ANSEL");
+        String field = "M\u0075\u0308ller, \u041c\u043e\u0441\u043a\u0432\u0430 \u4e2d\u6587 e\u0301\u0323 \u05d0\u05b8 ";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(field).append(i).append('\u001e');
+        }
+        String expected = sb.toString();
+        byte[] bytes = expected.getBytes(charset);
+        // escape sequences, three byte codes and diacritics split at every position
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            for (int capacity = 1; capacity <= 3; capacity++) {
+                assertEquals(expected, decode(charset.newDecoder(), bytes, chunk, capacity),
+                        "chunk=" + chunk + " capacity=" + capacity);
+            }
+        }
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        StringBuilder read = new StringBuilder();
+        try (Reader reader = new InputStreamReader(in, charset)) {
+            char[] buffer = new char[5];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                read.append(buffer, 0, n);
+            }
+        }
+        assertEquals(expected, read.toString());
+    }
+
+    private static String decode(CharsetDecoder decoder, byte[] bytes, int chunk, int capacity) {
+        ByteBuffer in = ByteBuffer.allocate(chunk + 8);
+        CharBuffer out = CharBuffer.allocate(capacity);
+        StringBuilder sb = new StringBuilder();
+        int offset = 0;
+        in.flip();
+        while (true) {
+            in.compact();
+            int length = Math.min(chunk, Math.min(bytes.length - offset, in.remaining()));
+            in.put(bytes, offset, length);
+            offset += length;
+            in.flip();
+            boolean endOfInput = offset == bytes.length;
+            CoderResult result;
+            do {
+                result = decoder.decode(in, out, endOfInput);
+                assertFalse(result.isError(), result.toString());
+                out.flip();
+                sb.append(out);
+                out.clear();
+            } while (result.isOverflow());
+            if (endOfInput) {
+                break;
+            }
+        }
+        assertFalse(in.hasRemaining());
+        CoderResult result;
+        do {
+            result = decoder.flush(out);
+            out.flip();
+            sb.append(out);
+            out.clear();
+        } while (result.isOverflow());
+        return sb.toString();
+    }
 }
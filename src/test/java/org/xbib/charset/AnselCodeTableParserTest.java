@@ -31,7 +31,11 @@
  */
 package org.xbib.charset;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.logging.Logger;
 import javax.xml.stream.XMLStreamException;
 
@@ -49,4 +53,35 @@ public class AnselCodeTableParserTest {
             }
         }
     }
+
+    @Test
+    public void testBinaryCodeTables() throws Exception {
+        AnselCodeTableParser anselCodeTableParser = new AnselCodeTableParser(getClass().getResourceAsStream("codetables.xml"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AnselCodeTables.write(anselCodeTableParser.getCodeTables(), bytes);
+        AnselCodeTables codeTables = AnselCodeTables.read(new ByteArrayInputStream(bytes.toByteArray()));
+        int count = 0;
+        for (AnselCodeTableParser.CodeTable codeTable : anselCodeTableParser.getCodeTables()) {
+            for (AnselCodeTableParser.CharacterSet characterSet : codeTable.getCharacterSets()) {
+                GraphicSet expected = new GraphicSet(characterSet);
+                GraphicSet actual = codeTables.graphicSet(Integer.parseInt(characterSet.getIsoCode(), 16));
+                assertEquals(expected.getName(), actual.getName());
+                for (int b = 0; b < 256; b++) {
+                    assertEquals(expected.entry(b), actual.entry(b));
+                }
+                for (String marc : characterSet.getMarc().keySet()) {
+                    if (marc.length() == 3) {
+                        assertEquals(expected.entry(marc.charAt(0), marc.charAt(1), marc.charAt(2)),
+                                actual.entry(marc.charAt(0), marc.charAt(1), marc.charAt(2)));
+                    }
+                }
+                for (int ch = 0; ch < 0x10000; ch++) {
+                    assertEquals(expected.code((char) ch), actual.code((char) ch));
+                }
+                count++;
+            }
+        }
+        assertEquals(12, count);
+        assertNull(codeTables.graphicSet('A'));
+    }
 }
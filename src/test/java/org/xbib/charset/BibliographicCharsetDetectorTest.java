@@ -0,0 +1,89 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ *
+ */
+public class BibliographicCharsetDetectorTest {
+
+    private static final String TEXT = "\u001faGoethe, Johann Wolfgang von\u001e\u001fa\u00DCber Kunst und Altertum."
+            + " M\u00FCnchen : Beck, 1998\u001e\u001faDie Leiden des jungen Werthers, Fr\u00E4ulein"
+            + " \u00C9tudes fran\u00E7aises, Lyc\u00E9e Saint-\u00C9tienne, \u00E0 la r\u00E9gion\u001e"
+            + "\u001faGr\u00F6\u00DFe und Gef\u00FCge der B\u00FCcher, K\u00F6ln, Z\u00FCrich\u001e\u001d";
+
+    private final BibliographicCharsetDetector detector = new BibliographicCharsetDetector();
+
+    @Test
+    public void testDetect() {
+        for (String name : new String[] { "UTF-8", "ANSEL", "ISO-5426", "x-PICA", "MAB-Diskette" }) {
+            Charset charset = Charset.forName(name);
+            byte[] bytes = (TEXT + TEXT).getBytes(charset);
+            List<BibliographicCharsetDetector.Match> matches = detector.detect(bytes, 0, bytes.length);
+            assertEquals(charset, matches.get(0).getCharset(), name + " " + matches);
+            assertTrue(matches.get(0).getConfidence() > 0.5, name + " " + matches);
+        }
+        // an escape to Greek
+        byte[] bytes = "\u001faHomer, \u03BF\u03B4\u03C5\u03C3\u03C3\u03B5\u03B9\u03B1\u001e\u001d"
+                .getBytes(BibliographicCharsets.ANSEL);
+        assertEquals(BibliographicCharsets.ANSEL, detector.detect(bytes, 0, bytes.length).get(0).getCharset());
+        // ASCII fits all
+        bytes = "\u001faGoethe\u001e\u001d".getBytes(StandardCharsets.US_ASCII);
+        List<BibliographicCharsetDetector.Match> matches = detector.detect(bytes, 0, bytes.length);
+        assertEquals(5, matches.size());
+        assertEquals(StandardCharsets.UTF_8, matches.get(0).getCharset());
+        assertEquals(0.2, matches.get(4).getConfidence(), 1e-9);
+    }
+
+    @Test
+    public void testDetectFile(@TempDir Path dir) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(TEXT);
+        }
+        Path path = dir.resolve("records");
+        Files.write(path, sb.toString().getBytes(BibliographicCharsets.ISO5426));
+        List<BibliographicCharsetDetector.Match> matches = new BibliographicCharsetDetector(4, 4096).detect(path);
+        assertEquals(BibliographicCharsets.ISO5426, matches.get(0).getCharset(), matches.toString());
+    }
+}
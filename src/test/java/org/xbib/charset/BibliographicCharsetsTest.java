@@ -31,10 +31,25 @@
  */
 package org.xbib.charset;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -56,4 +71,158 @@ public class BibliographicCharsetsTest {
         charset = BibliographicCharsets.PICA;
         assertEquals("hello", new String("hello".getBytes(StandardCharsets.US_ASCII), charset));
     }
+
+    @Test
+    public void testRegistry() throws Exception {
+        Charset charset = new BibliographicCharsetProvider().charsetForName("x-MAB");
+        assertEquals("ISO-5426", charset.name());
+        // every lookup the JDK does not cache creates a new provider
+        assertSame(charset, new BibliographicCharsetProvider().charsetForName("X-mab"));
+        assertSame(charset, Charset.forName("MAB2"));
+        assertNull(new BibliographicCharsetProvider().charsetForName("x-unknown"));
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Charset>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executorService.submit(() -> new BibliographicCharsetProvider().charsetForName("usmarc")));
+            }
+            for (Future<Charset> future : futures) {
+                assertSame(BibliographicCharsets.ANSEL, future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testArrays() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append("M\u00FCller, J\u00F6rg: \u00C9tudes sur \u0141\u00F3d\u017A \u03B1\u03B2 ")
+                    .append(sb.length()).append('\u001F');
+        }
+        String text = sb.toString();
+        for (String name : Arrays.asList("ANSEL", "SIMPLE_ANSEL", "ISO-5426", "ISO-5428", "PICA", "x-PICA",
+                "MAB-Diskette")) {
+            Charset charset = Charset.forName(name);
+            byte[] bytes = name.equals("ISO-5428") ?
+                    text.getBytes(StandardCharsets.ISO_8859_1) : text.getBytes(charset);
+            for (int len : new int[] { 0, 1, 37, 8192, bytes.length - 3 }) {
+                String expected = new String(bytes, 3, len, charset);
+                assertEquals(expected, BibliographicCharsets.decodeToString(charset, bytes, 3, len), name);
+                char[] chars = new char[len + 5];
+                int n = BibliographicCharsets.decode(charset, bytes, 3, len, chars, 5);
+                assertEquals(expected, new String(chars, 5, n), name);
+            }
+            if (name.equals("ISO-5428")) {
+                continue;
+            }
+            assertArrayEquals(text.getBytes(charset), BibliographicCharsets.encodeToBytes(charset, text), name);
+            byte[] dst = new byte[bytes.length * 2];
+            int n = BibliographicCharsets.encode(charset, text.toCharArray(), 0, text.length(), dst, 1);
+            assertArrayEquals(text.getBytes(charset), Arrays.copyOfRange(dst, 1, n + 1), name);
+            n = BibliographicCharsets.encode(charset, text, dst, 0);
+            assertArrayEquals(text.getBytes(charset), Arrays.copyOf(dst, n), name);
+        }
+        byte[] bytes = "hello".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(IndexOutOfBoundsException.class, () ->
+                BibliographicCharsets.decode(BibliographicCharsets.ANSEL, bytes, 0, bytes.length, new char[4], 0));
+        assertThrows(IndexOutOfBoundsException.class, () ->
+                BibliographicCharsets.decode(BibliographicCharsets.ANSEL, bytes, 1, bytes.length, new char[8], 0));
+        // the thread's decoder is reset after a failed call
+        assertEquals("hello", BibliographicCharsets.decodeToString(BibliographicCharsets.ANSEL, bytes, 0, 5));
+    }
+
+    @Test
+    public void testErrors() {
+        byte[] bytes = { 'a', 'b', (byte) 0x80, 'c', (byte) 0xAF, 'd', (byte) 0xDC, 'e', (byte) 0xBB, 'f' };
+        // ANSEL passes unassigned bytes of Extended Latin through, ISO 5426 and x-PICA replace them
+        assertErrors("ANSEL", bytes, 4, 0xAF, 6, 0xDC, 8, 0xBB);
+        assertErrors("ISO-5426", bytes, 2, 0x80, 6, 0xDC);
+        assertErrors("x-PICA", bytes, 2, 0x80, 6, 0xDC);
+        assertErrors("MAB-Diskette", bytes);
+        // SIMPLE_ANSEL passes unmapped bytes through, also after a diacritic which starts no byte sequence with them
+        assertErrors("SIMPLE_ANSEL", bytes, 2, 0x80, 4, 0xAF, 6, 0xDC, 8, 0xBB);
+        assertErrors("SIMPLE_ANSEL", new byte[] { (byte) 0xAF, 'a', (byte) 0xC9, 'b' }, 0, 0xAF, 2, 0xC9);
+        assertErrors("SIMPLE_ANSEL", new byte[] { 'a', (byte) 0xE8, (byte) 0xAF, 'b', (byte) 0xE8 }, 2, 0xAF);
+        assertErrors("SIMPLE_ANSEL", new byte[] { 'a', (byte) 0xE8, (byte) 0xAF }, 2, 0xAF);
+        // ISO 5428 replaces the unassigned high bytes, the tonos and dialitika write nothing
+        byte[] greek = { 'a', (byte) 0x80, (byte) 0xA2, (byte) 0xE1, (byte) 0xC0, (byte) 0xA3, (byte) 0xFE, (byte) 0xFF };
+        assertErrors("ISO-5428", greek, 1, 0x80, 4, 0xC0, 6, 0xFE, 7, 0xFF);
+        assertEquals("a\uFFFD\u03AC\uFFFD\uFFFD\uFFFD", new String(greek, BibliographicCharsets.ISO5428));
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        IntBuffer iso5428 = IntBuffer.allocate(512);
+        char[] greekChars = new char[all.length];
+        int length = BibliographicCharsets.decode(BibliographicCharsets.ISO5428, all, 0, all.length, greekChars, 0, iso5428);
+        // 0x80 to 0xBF except tonos and dialitika, and 15 unassigned letter positions
+        assertEquals(2 * 77, iso5428.position());
+        for (int i = 0; i < length; i++) {
+            assertTrue(greekChars[i] < 0x80 || greekChars[i] >= 0x0386 && greekChars[i] <= 0x03CE
+                    || greekChars[i] == '\uFFFD', Integer.toHexString(greekChars[i]));
+        }
+        byte[] stacked = new byte[40];
+        Arrays.fill(stacked, (byte) 0xC2);
+        stacked[39] = 'e';
+        assertErrors("ISO-5426", stacked, 32, 0xC2, 33, 0xC2, 34, 0xC2, 35, 0xC2, 36, 0xC2, 37, 0xC2, 38, 0xC2);
+        // a full buffer keeps the first errors
+        IntBuffer errors = IntBuffer.allocate(3);
+        char[] chars = new char[bytes.length];
+        int n = BibliographicCharsets.decode(BibliographicCharsets.ANSEL, bytes, 0, bytes.length, chars, 0, errors);
+        assertEquals(new String(bytes, BibliographicCharsets.ANSEL), new String(chars, 0, n));
+        assertEquals(2, errors.position());
+        assertThrows(IllegalArgumentException.class, () ->
+                BibliographicCharsets.decode(StandardCharsets.UTF_8, bytes, 0, 1, chars, 0, IntBuffer.allocate(2)));
+    }
+
+    @Test
+    public void testLenientDecoder() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("\u001B(3abc\u001Bs Muller \u00AF ");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        IntBuffer errors = IntBuffer.allocate(2000);
+        CharsetDecoder decoder = BibliographicCharsets.newLenientDecoder(BibliographicCharsets.ANSEL, errors);
+        CharBuffer chars = CharBuffer.allocate(bytes.length);
+        ByteBuffer in = ByteBuffer.allocate(7);
+        int off = 0;
+        while (off < bytes.length) {
+            int n = Math.min(in.remaining(), bytes.length - off);
+            in.put(bytes, off, n).flip();
+            off += n;
+            decoder.decode(in, chars, off == bytes.length);
+            in.compact();
+        }
+        decoder.flush(chars);
+        assertEquals(new String(bytes, BibliographicCharsets.ANSEL), chars.flip().toString());
+        errors.flip();
+        assertEquals(1000, errors.remaining());
+        int offset = -1;
+        for (int i = 0; i < 500; i++) {
+            offset = sb.indexOf("\u00AF", offset + 1);
+            assertEquals(offset, errors.get());
+            assertEquals(0xAF, errors.get());
+        }
+    }
+
+    private static void assertErrors(String name, byte[] bytes, int... expected) {
+        Charset charset = Charset.forName(name);
+        IntBuffer errors = IntBuffer.allocate(100);
+        errors.put(-1);
+        byte[] src = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, src, 3, bytes.length);
+        char[] chars = new char[bytes.length * 2];
+        int n = BibliographicCharsets.decode(charset, src, 3, bytes.length, chars, 0, errors);
+        assertEquals(new String(bytes, charset), new String(chars, 0, n), name);
+        int[] actual = new int[errors.position() - 1];
+        errors.flip().position(1);
+        errors.get(actual);
+        for (int i = 0; i < expected.length; i += 2) {
+            expected[i] += 3;
+        }
+        assertArrayEquals(expected, actual, name);
+    }
 }
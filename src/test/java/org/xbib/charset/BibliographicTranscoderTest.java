@@ -0,0 +1,209 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ */
+public class BibliographicTranscoderTest {
+
+    @Test
+    public void testTranscode() throws IOException {
+        String text = records();
+        for (Charset charset : new Charset[] { BibliographicCharsets.ANSEL, BibliographicCharsets.ISO5426 }) {
+            byte[] bytes = text.getBytes(charset);
+            byte[] expected = perRecord(bytes, charset, StandardCharsets.UTF_8);
+            for (int chunkSize : new int[] { 1, 1000, 1 << 20 }) {
+                BibliographicTranscoder transcoder = new BibliographicTranscoder(chunkSize, 4);
+                assertArrayEquals(expected, transcode(transcoder, bytes, charset, StandardCharsets.UTF_8),
+                        charset + " " + chunkSize);
+            }
+        }
+        BibliographicTranscoder transcoder = new BibliographicTranscoder(1000, 3);
+        byte[] bytes = text.getBytes(BibliographicCharsets.ISO5426);
+        assertArrayEquals(perRecord(bytes, BibliographicCharsets.ISO5426, BibliographicCharsets.ANSEL),
+                transcode(transcoder, bytes, BibliographicCharsets.ISO5426, BibliographicCharsets.ANSEL));
+        assertEquals(0, transcode(transcoder, new byte[0], BibliographicCharsets.ANSEL, StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void testTranscodeFiles(@TempDir Path dir) throws IOException {
+        String text = records();
+        Path in = dir.resolve("in");
+        Path out = dir.resolve("out");
+        for (Charset charset : new Charset[] { BibliographicCharsets.ANSEL, BibliographicCharsets.ISO5426 }) {
+            byte[] bytes = text.getBytes(charset);
+            Files.write(in, bytes);
+            byte[] expected = perRecord(bytes, charset, StandardCharsets.UTF_8);
+            // windows smaller than some records, chunks smaller than most records
+            for (int windowSize : new int[] { 100, 1000, 1 << 20 }) {
+                BibliographicTranscoder transcoder = new BibliographicTranscoder(100, 4, windowSize);
+                assertEquals(expected.length, transcoder.transcode(in, charset, out, StandardCharsets.UTF_8));
+                assertArrayEquals(expected, Files.readAllBytes(out), charset + " " + windowSize);
+            }
+        }
+        Files.write(in, new byte[0]);
+        assertEquals(0L, new BibliographicTranscoder().transcode(in, BibliographicCharsets.ANSEL, out,
+                StandardCharsets.UTF_8));
+        assertEquals(0L, Files.size(out));
+    }
+
+    @Test
+    public void testRecordBoundaries(@TempDir Path dir) throws IOException {
+        // the Greek designation of the first record does not carry over to the second
+        byte[] bytes = "\u001B(Sabc\u001Dabc\u001D".getBytes(StandardCharsets.ISO_8859_1);
+        assertArrayEquals("\u03B1\u03B2\u03D0\u001Dabc\u001D".getBytes(StandardCharsets.UTF_8),
+                transcode(new BibliographicTranscoder(), bytes, BibliographicCharsets.ANSEL, StandardCharsets.UTF_8));
+        // random records with escape sequences and combining characters, the output does not depend on the chunks
+        Random random = new Random(42L);
+        byte[] alphabet = "\u001B(S$)1NQ3b,!E4aZ\u00E1\u00E2\u00E8 \u001D".getBytes(StandardCharsets.ISO_8859_1);
+        Path in = dir.resolve("in");
+        Path out = dir.resolve("out");
+        for (int i = 0; i < 50; i++) {
+            bytes = new byte[1 + random.nextInt(2000)];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            Files.write(in, bytes);
+            for (Charset to : new Charset[] { StandardCharsets.UTF_8, BibliographicCharsets.ANSEL }) {
+                byte[] expected = perRecord(bytes, BibliographicCharsets.ANSEL, to);
+                for (int chunkSize : new int[] { 1, 4, 64, 1 << 22 }) {
+                    BibliographicTranscoder transcoder = new BibliographicTranscoder(chunkSize, 3);
+                    assertArrayEquals(expected, transcode(transcoder, bytes, BibliographicCharsets.ANSEL, to),
+                            i + " " + to + " " + chunkSize);
+                    transcoder.transcode(in, BibliographicCharsets.ANSEL, out, to);
+                    assertArrayEquals(expected, Files.readAllBytes(out), i + " " + to + " " + chunkSize);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutTerminators() throws IOException {
+        // the buffer stops growing at the window size, the output is written while the input is read
+        int length = 1 << 20;
+        int[] readAhead = new int[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position == length) {
+                    return -1;
+                }
+                int n = Math.min(len, length - position);
+                Arrays.fill(b, off, off + n, (byte) 'a');
+                position += n;
+                readAhead[0] = Math.max(readAhead[0], position - out.size());
+                return n;
+            }
+        };
+        BibliographicTranscoder transcoder = new BibliographicTranscoder(100, 1, 1000);
+        assertEquals(length, transcoder.transcode(in, BibliographicCharsets.ANSEL, out, StandardCharsets.UTF_8));
+        byte[] expected = new byte[length];
+        Arrays.fill(expected, (byte) 'a');
+        assertArrayEquals(expected, out.toByteArray());
+        assertTrue(readAhead[0] <= 4 * 1000, String.valueOf(readAhead[0]));
+    }
+
+    /**
+     * Decode and encode each record with new coders.
+     */
+    private static byte[] perRecord(byte[] bytes, Charset from, Charset to) {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        for (int i = 1; i <= bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == BibliographicTranscoder.RECORD_TERMINATOR) {
+                sb.append(new String(bytes, start, i - start, from));
+                start = i;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        start = 0;
+        for (int i = 1; i <= sb.length(); i++) {
+            if (i == sb.length() || sb.charAt(i) == BibliographicTranscoder.RECORD_TERMINATOR) {
+                out.writeBytes(sb.substring(start, i).getBytes(to));
+                start = i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String records() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("00000nam a2200000 c 4500\u001faM\u00FCller, J\u00F6rg\u001e\u001fa\u03B1\u03B2 ")
+                    .append(i).append("\u001e");
+            if (i % 100 == 0) {
+                // a record longer than the chunk size
+                for (int j = 0; j < 300; j++) {
+                    sb.append("\u00C9tudes ");
+                }
+            }
+            sb.append("\u001d");
+        }
+        // no terminator at the end
+        sb.append("M\u00FCller");
+        return sb.toString();
+    }
+
+    private static byte[] transcode(BibliographicTranscoder transcoder, byte[] bytes, Charset from, Charset to)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long n = transcoder.transcode(new ByteArrayInputStream(bytes), from, out, to);
+        assertEquals(out.size(), n);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Random;
+
+/**
+ * Compares the bulk look-up of {@link ByteTable}, whichever version is loaded, with
+ * a look-up byte by byte.
+ */
+public class ByteTableTest {
+
+    @Test
+    public void testDecode() {
+        Random random = new Random(42L);
+        char[] identity = new char[256];
+        char[] shifted = new char[256];
+        for (int i = 0; i < 256; i++) {
+            identity[i] = (char) (i < 0x80 ? i : 0x2500 + i);
+            shifted[i] = (char) (0x100 + i);
+        }
+        for (double highShare : new double[] {0.0, 0.01, 0.1, 0.5, 1.0}) {
+            for (int length = 0; length < 200; length += 1 + random.nextInt(7)) {
+                byte[] src = new byte[length + 5];
+                for (int i = 0; i < src.length; i++) {
+                    src[i] = (byte) (random.nextDouble() < highShare ? 0x80 + random.nextInt(0x80) :
+                            random.nextInt(0x80));
+                }
+                int sp = random.nextInt(5);
+                assertDecode(src, sp, length, identity, true);
+                assertDecode(src, sp, length, shifted, false);
+            }
+        }
+    }
+
+    @Test
+    public void testDecoder() {
+        Charset charset = Charset.forName("MAB-Diskette");
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i % 17 == 0 ? 0x81 + i % 100 : 'a' + i % 26);
+        }
+        String expected = new String(bytes, charset);
+        CharsetDecoder decoder = charset.newDecoder();
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CharBuffer out = CharBuffer.allocate(bytes.length);
+        CharBuffer window = CharBuffer.allocate(33);
+        CoderResult result;
+        do {
+            result = decoder.decode(in, window, true);
+            out.put(window.flip());
+            window.clear();
+        } while (result.isOverflow());
+        assertEquals(CoderResult.UNDERFLOW, result);
+        assertEquals(expected, out.flip().toString());
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        assertEquals(expected, charset.decode(direct).toString());
+    }
+
+    private static void assertDecode(byte[] src, int sp, int length, char[] lookup, boolean ascii) {
+        char[] expected = new char[length + 3];
+        for (int i = 0; i < length; i++) {
+            expected[i + 3] = lookup[src[sp + i] & 0xFF];
+        }
+        char[] actual = new char[length + 3];
+        ByteTable.decode(src, sp, actual, 3, length, lookup, ascii);
+        assertArrayEquals(expected, actual);
+    }
+}
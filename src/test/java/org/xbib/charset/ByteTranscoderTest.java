@@ -0,0 +1,183 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ */
+public class ByteTranscoderTest {
+
+    private static final Charset[] SOURCES = {
+            BibliographicCharsets.ISO5426, Charset.forName("x-PICA"), BibliographicCharsets.ANSEL,
+            BibliographicCharsets.MAB_DISKETTE, BibliographicCharsets.PICA
+    };
+
+    private static final Charset[] TARGETS = {
+            BibliographicCharsets.ISO5426, Charset.forName("x-PICA"), BibliographicCharsets.ANSEL,
+            StandardCharsets.UTF_8
+    };
+
+    @Test
+    public void testText() {
+        String text = "M\u00FCller, J\u00F6rg \u00C9tudes Stra\u00DFe \u0141\u00F3d\u017A \u1EA0 \u03B1\u03B2 \u00C6 a\u0308\u0301b \u0416\u0443\u043A \u4E2D\u6587 \u05E9\u05DC\u05D5\u05DD x\u00B2 end";
+        for (Charset source : SOURCES) {
+            byte[] bytes = text.getBytes(source);
+            for (Charset target : TARGETS) {
+                assertTranscoded(bytes, source, target, ByteTranscoder.of(source, target).transcode(bytes, 0, bytes.length));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomBytes() {
+        Random random = new Random(42L);
+        byte[] bytes = new byte[200];
+        for (Charset source : SOURCES) {
+            for (Charset target : TARGETS) {
+                ByteTranscoder transcoder = ByteTranscoder.of(source, target);
+                for (int i = 0; i < 50; i++) {
+                    random.nextBytes(bytes);
+                    if (i % 2 == 0) {
+                        // no escapes, mostly combining and base bytes of the upper half
+                        for (int j = 0; j < bytes.length; j++) {
+                            bytes[j] = (byte) (bytes[j] == 0x1B ? 'a' : bytes[j] | 0x80 & random.nextInt());
+                        }
+                    }
+                    assertTranscoded(bytes, source, target, transcoder.transcode(bytes, 0, bytes.length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testArrays() {
+        ByteTranscoder transcoder = ByteTranscoder.of(BibliographicCharsets.ISO5426, BibliographicCharsets.ANSEL);
+        assertSame(transcoder, ByteTranscoder.of(BibliographicCharsets.ISO5426, BibliographicCharsets.ANSEL));
+        byte[] src = "xxM\u00FCller\u03B1".getBytes(BibliographicCharsets.ISO5426);
+        byte[] expected = new String(src, 2, src.length - 2, BibliographicCharsets.ISO5426)
+                .getBytes(BibliographicCharsets.ANSEL);
+        byte[] dst = new byte[transcoder.maxLength(src.length) + 1];
+        assertEquals(expected.length, transcoder.transcode(src, 2, src.length - 2, dst, 1));
+        assertArrayEquals(expected, Arrays.copyOfRange(dst, 1, 1 + expected.length));
+        assertEquals(0, transcoder.transcode(src, 0, 0, dst, dst.length));
+        assertThrows(IndexOutOfBoundsException.class, () -> transcoder.transcode(src, 0, src.length, new byte[2], 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> ByteTranscoder.of(BibliographicCharsets.ISO5428, BibliographicCharsets.ANSEL));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ByteTranscoder.of(BibliographicCharsets.ISO5426, BibliographicCharsets.ISO5428));
+    }
+
+    @Test
+    public void testUtf8() {
+        String text = "M\u00FCller, J\u00F6rg \u00C9tudes Stra\u00DFe \u0141\u00F3d\u017A \u1EA0 \u03B1\u03B2 a\u0308\u0301b \u0416\u0443\u043A \u4E2D\u6587 x\u00B2 end";
+        Random random = new Random(42L);
+        byte[] bytes = new byte[200];
+        for (Charset source : SOURCES) {
+            ByteTranscoder transcoder = ByteTranscoder.toUtf8(source);
+            assertSame(StandardCharsets.UTF_8, transcoder.getTargetCharset());
+            byte[] encoded = text.getBytes(source);
+            assertArrayEquals(utf8(encoded, source), transcoder.transcode(encoded, 0, encoded.length), source.name());
+            for (int i = 0; i < 50; i++) {
+                random.nextBytes(bytes);
+                assertArrayEquals(utf8(bytes, source), transcoder.transcode(bytes, 0, bytes.length), source.name());
+            }
+        }
+        // ANSEL does not compose on decoding
+        byte[] ansel = text.getBytes(BibliographicCharsets.ANSEL);
+        assertEquals(Normalizer.normalize(text, Normalizer.Form.NFC),
+                new String(ByteTranscoder.toUtf8(BibliographicCharsets.ANSEL).transcode(ansel, 0, ansel.length),
+                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBuffers() {
+        ByteTranscoder transcoder = ByteTranscoder.toUtf8(BibliographicCharsets.ISO5426);
+        byte[] bytes = "M\u00FCller".getBytes(BibliographicCharsets.ISO5426);
+        byte[] expected = "M\u00FCller".getBytes(StandardCharsets.UTF_8);
+        for (boolean direct : new boolean[] { false, true }) {
+            ByteBuffer src = direct ? ByteBuffer.allocateDirect(bytes.length + 1) : ByteBuffer.allocate(bytes.length + 1);
+            src.put((byte) 'x').put(bytes).flip().position(1);
+            ByteBuffer dst = direct ? ByteBuffer.allocateDirect(100) : ByteBuffer.allocate(100);
+            dst.position(2);
+            assertEquals(expected.length, transcoder.transcode(src, dst));
+            assertEquals(src.limit(), src.position());
+            assertEquals(2 + expected.length, dst.position());
+            byte[] actual = new byte[expected.length];
+            dst.flip().position(2);
+            dst.get(actual);
+            assertArrayEquals(expected, actual);
+            src.position(1);
+            ByteBuffer small = direct ? ByteBuffer.allocateDirect(expected.length) : ByteBuffer.allocate(expected.length);
+            assertEquals(expected.length, transcoder.transcode(src, small));
+            assertEquals(src.limit(), src.position());
+            assertArrayEquals(expected, bytes(small.flip()));
+            src.position(1);
+            ByteBuffer tooSmall = ByteBuffer.allocate(expected.length - 1);
+            assertThrows(BufferOverflowException.class, () -> transcoder.transcode(src, tooSmall));
+            assertEquals(1, src.position());
+            assertEquals(0, tooSmall.position());
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] utf8(byte[] bytes, Charset source) {
+        return Normalizer.normalize(new String(bytes, source), Normalizer.Form.NFC).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertTranscoded(byte[] bytes, Charset source, Charset target, byte[] actual) {
+        byte[] expected = new String(bytes, source).getBytes(target);
+        if (target.equals(BibliographicCharsets.ANSEL)) {
+            // the escape sequences around the Unicode path may differ, not the text
+            assertEquals(new String(expected, target), new String(actual, target), source + " " + target);
+        } else {
+            assertArrayEquals(expected, actual, source + " " + target);
+        }
+    }
+}
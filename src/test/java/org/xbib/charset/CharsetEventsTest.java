@@ -0,0 +1,106 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ *
+ */
+public class CharsetEventsTest {
+
+    @Test
+    public void testEvents() throws IOException {
+        List<RecordedEvent> events;
+        Path file = Files.createTempFile("charset", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.xbib.charset.SlowDecode").withThreshold(Duration.ZERO);
+            recording.enable("org.xbib.charset.DecoderRollback");
+            recording.enable("org.xbib.charset.UnknownEscape");
+            recording.start();
+            new String(new byte[] { 'a', 'b', 0x1b, '!', 'X', 'c' }, BibliographicCharsets.ANSEL);
+            byte[] stacked = new byte[40];
+            Arrays.fill(stacked, (byte) 0xC2);
+            stacked[0] = 'x';
+            new String(stacked, BibliographicCharsets.ISO5426);
+            CharsetDecoder decoder = BibliographicCharsets.ISO5426.newDecoder();
+            decoder.decode(ByteBuffer.wrap(new byte[] { 'a', 'b', (byte) 0xC2, 'e' }), CharBuffer.allocate(2), true);
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+        List<RecordedEvent> escapes = select(events, "org.xbib.charset.UnknownEscape");
+        assertEquals(1, escapes.size());
+        assertEquals("ANSEL", escapes.get(0).getString("charset"));
+        assertEquals(2L, escapes.get(0).getLong("offset"));
+        assertEquals("ESC 21 58", escapes.get(0).getString("sequence"));
+        List<RecordedEvent> rollbacks = select(events, "org.xbib.charset.DecoderRollback");
+        // each combining byte over the maximum is malformed
+        assertEquals(8, rollbacks.size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(33L + i, rollbacks.get(i).getLong("offset"));
+            assertEquals(32, rollbacks.get(i).getInt("combining"));
+            assertTrue(rollbacks.get(i).getBoolean("malformed"));
+        }
+        assertEquals(3L, rollbacks.get(7).getLong("offset"));
+        assertEquals(1, rollbacks.get(7).getInt("combining"));
+        assertFalse(rollbacks.get(7).getBoolean("malformed"));
+        List<RecordedEvent> decodes = select(events, "org.xbib.charset.SlowDecode");
+        assertTrue(decodes.stream().anyMatch(e -> e.getString("charset").equals("ISO-5426")
+                && e.getLong("inputSize") == 4 && e.getLong("bytesRead") == 3 && e.getString("result").equals("OVERFLOW")));
+    }
+
+    private static List<RecordedEvent> select(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .sorted((e1, e2) -> e1.getStartTime().compareTo(e2.getStartTime()))
+                .collect(Collectors.toList());
+    }
+}
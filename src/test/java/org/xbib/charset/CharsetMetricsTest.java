@@ -0,0 +1,98 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.Test;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *
+ */
+public class CharsetMetricsTest {
+
+    @Test
+    public void testMBean() throws JMException {
+        Charset charset = Charset.forName("SIMPLE_ANSEL");
+        CharsetMetrics metrics = CharsetMetrics.of(charset);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.xbib.charset:type=CharsetMetrics,name=" + charset.name());
+        assertTrue(server.isRegistered(name));
+        metrics.reset();
+        metrics.decoded(10, 9, CoderResult.UNDERFLOW);
+        metrics.escaped('g');
+        metrics.escaped('g');
+        assertEquals(charset.name(), server.getAttribute(name, "Charset"));
+        assertEquals(10L, server.getAttribute(name, "BytesDecoded"));
+        assertEquals(9L, server.getAttribute(name, "CharsDecoded"));
+        assertEquals(Map.of("g", 2L), metrics.getEscapeSequences());
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, metrics.getBytesDecoded());
+    }
+
+    @Test
+    public void testCoders() {
+        assumeTrue(CharsetMetrics.ENABLED);
+        CharsetMetrics ansel = CharsetMetrics.of(BibliographicCharsets.ANSEL);
+        CharsetMetrics iso5426 = CharsetMetrics.of(BibliographicCharsets.ISO5426);
+        ansel.reset();
+        iso5426.reset();
+        String text = "M\u00fcller \u03b1\u03b2\u03b3 \u00e9";
+        byte[] bytes = text.getBytes(BibliographicCharsets.ANSEL);
+        assertEquals(text.length(), ansel.getCharsEncoded());
+        assertEquals(bytes.length, ansel.getBytesEncoded());
+        assertEquals(1L, ansel.getEscapeSequences().get("g"));
+        assertEquals(1L, ansel.getEscapeSequences().get("B"));
+        ansel.reset();
+        String decoded = new String(bytes, BibliographicCharsets.ANSEL);
+        assertEquals(bytes.length, ansel.getBytesDecoded());
+        assertEquals(decoded.length(), ansel.getCharsDecoded());
+        bytes = text.getBytes(BibliographicCharsets.ISO5426);
+        // the Greek letters are replaced
+        assertEquals(3L, iso5426.getReplacements());
+        iso5426.reset();
+        assertEquals(text.replaceAll("[\u03b1-\u03b3]", "?"), new String(bytes, BibliographicCharsets.ISO5426));
+        assertEquals(2L, iso5426.getComposedClusters());
+        assertEquals(bytes.length, iso5426.getBytesDecoded());
+        assertEquals(0L, iso5426.getReplacements());
+        new String(new byte[] { 'a', (byte) 0x80 }, BibliographicCharsets.ISO5426);
+        assertEquals(1L, iso5426.getReplacements());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ */
+public class CoderPoolTest {
+
+    @Test
+    public void testRelease() throws CharacterCodingException {
+        CoderPool pool = CoderPool.of(BibliographicCharsets.ANSEL);
+        assertSame(pool, CoderPool.of(BibliographicCharsets.ANSEL));
+        CharsetDecoder decoder = pool.borrowDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPLACE).replaceWith("?");
+        // leave the decoder in the Greek character set
+        decoder.decode(ByteBuffer.wrap("\u001b(Sab".getBytes(StandardCharsets.ISO_8859_1)),
+                CharBuffer.allocate(16), false);
+        pool.release(decoder);
+        CharsetDecoder borrowed = pool.borrowDecoder();
+        assertSame(decoder, borrowed);
+        assertEquals(CodingErrorAction.REPORT, borrowed.malformedInputAction());
+        assertEquals("\uFFFD", borrowed.replacement());
+        assertEquals("ab", borrowed.decode(ByteBuffer.wrap("ab".getBytes(StandardCharsets.ISO_8859_1))).toString());
+        pool.release(borrowed);
+
+        CharsetEncoder encoder = pool.borrowEncoder();
+        byte[] replacement = encoder.replacement();
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE).replaceWith(new byte[] { '*' });
+        pool.release(encoder);
+        encoder = pool.borrowEncoder();
+        assertEquals(CodingErrorAction.REPORT, encoder.unmappableCharacterAction());
+        assertArrayEquals(replacement, encoder.replacement());
+        pool.release(encoder);
+
+        assertThrows(IllegalArgumentException.class, () -> pool.release(BibliographicCharsets.MAB.newDecoder()));
+        assertThrows(UnsupportedOperationException.class, () -> CoderPool.of(BibliographicCharsets.ISO5428).borrowEncoder());
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        testThreads(Executors.newFixedThreadPool(8));
+        ExecutorService executorService;
+        try {
+            // Java 21
+            executorService = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return;
+        }
+        testThreads(executorService);
+    }
+
+    private void testThreads(ExecutorService executorService) throws Exception {
+        CoderPool pool = new CoderPool(BibliographicCharsets.ANSEL, 4);
+        byte[] bytes = "\u001b(Sabg\u001b(B abc".getBytes(StandardCharsets.ISO_8859_1);
+        String expected = new String(bytes, BibliographicCharsets.ANSEL);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(executorService.submit(() -> {
+                    CharsetDecoder decoder = pool.borrowDecoder();
+                    try {
+                        return decoder.decode(ByteBuffer.wrap(bytes)).toString();
+                    } finally {
+                        pool.release(decoder);
+                    }
+                }));
+            }
+            for (Future<String> future : futures) {
+                assertEquals(expected, future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ *
+ */
+public class CodingProcessorTest {
+
+    private static final List<String> CHARSETS = Arrays.asList("ANSEL", "SIMPLE_ANSEL", "ISO-5426", "ISO-5428",
+            "PICA", "x-PICA", "MAB-Diskette");
+
+    /**
+     * ISO-5428 letters, without accent, with tonos, with dialitika, with both.
+     */
+    private static final int[][] GREEK = {
+            { 0xe1, 0x03b1, 0x03ac, 0x03b1, 0x03ac },
+            { 0xe2, 0x03b2, 0x03b2, 0x03b2, 0x03b2 },
+            { 0xe6, 0x03b5, 0x03ad, 0x03b5, 0x03ad },
+            { 0xec, 0x03b9, 0x03af, 0x03ca, 0x0390 },
+            { 0xf9, 0x03c5, 0x03cd, 0x03cb, 0x03b0 },
+            { 0xcc, 0x0399, 0x038a, 0x03aa, 0x038a }
+    };
+
+    @Test
+    public void testDecode() {
+        String text = text();
+        Random random = new Random(42L);
+        for (String name : CHARSETS) {
+            Charset charset = Charset.forName(name);
+            byte[] bytes = name.equals("ISO-5428") ?
+                    text.getBytes(StandardCharsets.ISO_8859_1) : text.getBytes(charset);
+            assertEquals(new String(bytes, charset), decode(charset, bytes, random), name);
+        }
+        // ISO-5428 tonos and dialitika bytes, which may be split from their letters
+        for (int i = 0; i < 50; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            StringBuilder expected = new StringBuilder();
+            int length = 1 + random.nextInt(1000);
+            for (int j = 0; j < length; j++) {
+                int accent = random.nextInt(4);
+                if (accent == 1 || accent == 3) {
+                    bytes.write(0xa2);
+                }
+                if (accent == 2 || accent == 3) {
+                    bytes.write(0xa3);
+                }
+                int k = random.nextInt(GREEK.length + 1);
+                if (k == GREEK.length) {
+                    // an accent without a letter is dropped
+                    bytes.write('a');
+                    expected.append('a');
+                } else {
+                    bytes.write(GREEK[k][0]);
+                    expected.append((char) GREEK[k][1 + accent]);
+                }
+            }
+            byte[] b = bytes.toByteArray();
+            assertEquals(expected.toString(), new String(b, BibliographicCharsets.ISO5428), "ISO-5428 " + i);
+            assertEquals(expected.toString(), decode(BibliographicCharsets.ISO5428, b, random), "ISO-5428 " + i);
+        }
+    }
+
+    /**
+     * Decode bytes in chunks of random size.
+     */
+    private static String decode(Charset charset, byte[] bytes, Random random) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int off = 0; off < bytes.length; ) {
+            int n = Math.min(1 + random.nextInt(100), bytes.length - off);
+            chunks.add(ByteBuffer.wrap(bytes, off, n).slice());
+            off += n;
+        }
+        DecodingProcessor processor = new DecodingProcessor(charset);
+        StringBuilder sb = new StringBuilder();
+        Collector<CharBuffer> collector = new Collector<>(buffer -> {
+            sb.append(buffer);
+            processor.release(buffer);
+        });
+        new ListPublisher<>(chunks).subscribe(processor);
+        processor.subscribe(collector);
+        assertTrue(collector.complete, charset.name());
+        return sb.toString();
+    }
+
+    @Test
+    public void testEncode() {
+        // a surrogate pair, which is unmappable in all charsets, may be split between chunks
+        String text = text() + "\uD83D\uDE00 e\u0301";
+        Random random = new Random(42L);
+        for (String name : CHARSETS) {
+            Charset charset = Charset.forName(name);
+            if (name.equals("ISO-5428")) {
+                assertThrows(UnsupportedOperationException.class, () -> new EncodingProcessor(charset));
+                continue;
+            }
+            List<CharBuffer> chunks = new ArrayList<>();
+            for (int off = 0; off < text.length(); ) {
+                int n = Math.min(1 + random.nextInt(100), text.length() - off);
+                chunks.add(CharBuffer.wrap(text.substring(off, off + n)));
+                off += n;
+            }
+            EncodingProcessor processor = new EncodingProcessor(charset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Collector<ByteBuffer> collector = new Collector<>(buffer -> {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                processor.release(buffer);
+            });
+            new ListPublisher<>(chunks).subscribe(processor);
+            processor.subscribe(collector);
+            assertTrue(collector.complete, name);
+            assertArrayEquals(text.getBytes(charset), out.toByteArray(), name);
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        byte[] bytes = new byte[3 * CodingProcessor.BUFFER_SIZE];
+        Arrays.fill(bytes, (byte) 'a');
+        ListPublisher<ByteBuffer> publisher = new ListPublisher<>(Collections.singletonList(ByteBuffer.wrap(bytes)));
+        DecodingProcessor processor = new DecodingProcessor(BibliographicCharsets.ISO5426);
+        List<CharBuffer> buffers = new ArrayList<>();
+        Collector<CharBuffer> collector = new Collector<>(buffers::add);
+        collector.initialRequest = 0;
+        publisher.subscribe(processor);
+        processor.subscribe(collector);
+        assertEquals(0, publisher.requests);
+        collector.subscription.request(2);
+        assertEquals(1, publisher.requests);
+        assertEquals(2, buffers.size());
+        assertEquals(CodingProcessor.BUFFER_SIZE, buffers.get(0).remaining());
+        collector.subscription.request(5);
+        // the input is decoded, the completion does not need demand
+        assertEquals(3, buffers.size());
+        assertTrue(collector.complete);
+        collector.subscription.request(1);
+        assertEquals(3, buffers.size());
+        // output buffers are taken from the pool again after they are released
+        Set<CharBuffer> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        processor = new DecodingProcessor(BibliographicCharsets.ISO5426);
+        DecodingProcessor p = processor;
+        collector = new Collector<>(buffer -> {
+            seen.add(buffer);
+            p.release(buffer);
+        });
+        new ListPublisher<>(Collections.singletonList(ByteBuffer.wrap(bytes))).subscribe(processor);
+        processor.subscribe(collector);
+        assertTrue(collector.complete);
+        assertEquals(1, seen.size());
+    }
+
+    @Test
+    public void testCancel() {
+        ListPublisher<ByteBuffer> publisher = new ListPublisher<>(Arrays.asList(
+                ByteBuffer.wrap(new byte[] { 'a' }), ByteBuffer.wrap(new byte[] { 'b' })));
+        DecodingProcessor processor = new DecodingProcessor(BibliographicCharsets.ANSEL);
+        StringBuilder sb = new StringBuilder();
+        Collector<CharBuffer> collector = new Collector<>(sb::append);
+        collector.initialRequest = 0;
+        publisher.subscribe(processor);
+        processor.subscribe(collector);
+        collector.subscription.request(1);
+        assertEquals("a", sb.toString());
+        collector.subscription.cancel();
+        assertTrue(publisher.cancelled);
+        collector.subscription.request(1);
+        assertEquals("a", sb.toString());
+        assertFalse(collector.complete);
+        // a second subscriber is rejected, a non-positive request is an error
+        Collector<CharBuffer> second = new Collector<>(sb::append);
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+        processor = new DecodingProcessor(BibliographicCharsets.ANSEL);
+        collector = new Collector<>(sb::append);
+        collector.initialRequest = 0;
+        processor.subscribe(collector);
+        collector.subscription.request(0);
+        assertTrue(collector.error instanceof IllegalArgumentException);
+    }
+
+    private static String text() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append("M\u00FCller, J\u00F6rg: \u00C9tudes sur \u0141\u00F3d\u017A \u03B1\u03B2 ")
+                    .append(sb.length()).append('\u001F');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Publishes the items of a list synchronously, in the calls of request.
+     */
+    private static final class ListPublisher<T> implements Flow.Publisher<T> {
+
+        private final List<T> items;
+
+        int requests;
+
+        boolean cancelled;
+
+        ListPublisher(List<T> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+
+                private long demand;
+
+                private int index;
+
+                private boolean emitting;
+
+                @Override
+                public void request(long n) {
+                    requests++;
+                    demand += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && index < items.size() && !cancelled) {
+                        demand--;
+                        subscriber.onNext(items.get(index++));
+                    }
+                    if (index == items.size() && !cancelled) {
+                        index++;
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Requests one buffer after the other.
+     */
+    private static final class Collector<T> implements Flow.Subscriber<T> {
+
+        private final Consumer<T> consumer;
+
+        long initialRequest = 1;
+
+        Flow.Subscription subscription;
+
+        boolean complete;
+
+        Throwable error;
+
+        Collector(Consumer<T> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            consumer.accept(item);
+            if (initialRequest > 0) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.UnmappableCharacterException;
+
+/**
+ *
+ */
+public class PicaTest {
+
+    private final Charset charset = Charset.forName("PICA");
+
+    @Test
+    public void testDecode() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        String s = new String(bytes, charset);
+        assertEquals(256, s.length());
+        for (int i = 0; i < 0xa0; i++) {
+            assertEquals(i, s.charAt(i));
+        }
+        assertEquals('\u0141', s.charAt(0xa1));
+        assertEquals('\u0301', s.charAt(0xe2));
+        assertEquals('?', s.charAt(0xd9));
+        // no Pica definition, same as ISO-8859-1
+        assertEquals('\u00f1', s.charAt(0xf1));
+        assertEquals('\u00fd', s.charAt(0xfd));
+    }
+
+    @Test
+    public void testRoundTrip() throws CharacterCodingException {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        String s = charset.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(s));
+        for (int i = 0; i < bytes.length; i++) {
+            // unassigned positions decode to '?', which encodes to ASCII '?'
+            assertEquals(s.charAt(i) == '?' ? '?' : i, encoded.get(i) & 0xff);
+        }
+    }
+
+    @Test
+    public void testUnmappable() {
+        CharsetEncoder encoder = charset.newEncoder();
+        // e with acute is not in Pica and must not fall through to ISO-8859-1 0xE9 (combining caron)
+        assertThrows(UnmappableCharacterException.class, () -> encoder.encode(CharBuffer.wrap("caf\u00e9")));
+        assertArrayEquals(new byte[] {'c', 'a', 'f', '?'}, "caf\u00e9".getBytes(charset));
+        ByteBuffer out = ByteBuffer.allocate(8);
+        CharBuffer in = CharBuffer.wrap("a\ud83d\ude00");
+        CoderResult result = encoder.reset().encode(in, out, true);
+        assertEquals(CoderResult.unmappableForLength(2), result);
+        assertEquals(1, in.position());
+        in = CharBuffer.wrap("a\ude00");
+        result = encoder.reset().encode(in, out, true);
+        assertEquals(CoderResult.malformedForLength(1), result);
+    }
+}
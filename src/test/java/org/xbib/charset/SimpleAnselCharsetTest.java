@@ -34,11 +34,20 @@ package org.xbib.charset;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.SortedMap;
 
 /**
@@ -61,4 +70,145 @@ public class SimpleAnselCharsetTest {
         String output = cbuf.toString();
         assertEquals("\u00fc", output);
     }
+
+    @Test
+    public void testLongestMatch() throws Exception {
+        // the former decoder walked a trie of byte sequences
+        Map<String, Character> sequences = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("ansel-mapping.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] kvp = line.replaceFirst("[;#].*", "").split("=");
+                if (kvp.length == 2) {
+                    StringBuilder sb = new StringBuilder();
+                    for (String b : kvp[1].split(" ")) {
+                        sb.append((char) Integer.parseInt(b.substring(2), 16));
+                    }
+                    sequences.put(sb.toString(), (char) Integer.parseInt(kvp[0].substring(1), 16));
+                }
+            }
+        }
+        byte[] diacritics = new byte[32];
+        for (int i = 0; i < diacritics.length; i++) {
+            diacritics[i] = (byte) (0xE0 + i);
+        }
+        Random random = new Random(1L);
+        byte[] bytes = new byte[100000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = random.nextInt(3) == 0 ? diacritics[random.nextInt(diacritics.length)] : (byte) random.nextInt(256);
+        }
+        String input = new String(bytes, StandardCharsets.ISO_8859_1);
+        StringBuilder expected = new StringBuilder();
+        int i = 0;
+        while (i < input.length()) {
+            int length = 1;
+            Character ch = null;
+            for (int j = i + 1; j <= Math.min(input.length(), i + 3); j++) {
+                Character c = sequences.get(input.substring(i, j));
+                if (c != null) {
+                    ch = c;
+                    length = j - i;
+                }
+            }
+            expected.append(ch != null ? ch.charValue() : input.charAt(i));
+            i += length;
+        }
+        Charset charset = Charset.forName("SIMPLE_ANSEL");
+        assertEquals(expected.toString(), new String(bytes, charset));
+        // byte sequences split across buffers, and an output buffer of one character
+        CharsetDecoder decoder = charset.newDecoder();
+        ByteBuffer in = ByteBuffer.allocate(8);
+        CharBuffer out = CharBuffer.allocate(1);
+        StringBuilder sb = new StringBuilder();
+        int offset = 0;
+        in.flip();
+        while (offset < bytes.length || in.hasRemaining()) {
+            in.compact();
+            int length = Math.min(Math.min(1 + offset % 3, bytes.length - offset), in.remaining());
+            in.put(bytes, offset, length).flip();
+            offset += length;
+            CoderResult result;
+            do {
+                result = decoder.decode(in, out, offset == bytes.length);
+                sb.append(out.flip());
+                out.clear();
+            } while (result.isOverflow());
+        }
+        while (decoder.flush(out).isOverflow()) {
+            sb.append(out.flip());
+            out.clear();
+        }
+        sb.append(out.flip());
+        assertEquals(expected.toString(), sb.toString());
+    }
+
+    @Test
+    public void testEncoder() throws Exception {
+        Charset charset = Charset.forName("SIMPLE_ANSEL");
+        // diacritics precede the base letter, in the order of the combining characters
+        assertEquals("\u00e8u", new String("u\u0308".getBytes(charset), StandardCharsets.ISO_8859_1));
+        assertEquals("\u00e8u", new String("\u00fc".getBytes(charset), StandardCharsets.ISO_8859_1));
+        assertEquals("\u00e8\u00e2u", new String("\u00fc\u0301".getBytes(charset), StandardCharsets.ISO_8859_1));
+        assertEquals("\u00e2M\u00e2\u00f2ax", new String("\u0301Ma\u0301\u0323x".getBytes(charset),
+                StandardCharsets.ISO_8859_1));
+        CharsetEncoder encoder = charset.newEncoder();
+        assertTrue(encoder.encode(CharBuffer.wrap("a\u4e2d"), ByteBuffer.allocate(8), true).isUnmappable());
+        // the former encoder wrote the byte sequence of each character
+        Map<Character, String> sequences = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("ansel-mapping.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] kvp = line.replaceFirst("[;#].*", "").split("=");
+                if (kvp.length == 2) {
+                    char ch = (char) Integer.parseInt(kvp[0].substring(1), 16);
+                    if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+                        StringBuilder sb = new StringBuilder();
+                        for (String b : kvp[1].split(" ")) {
+                            sb.append((char) Integer.parseInt(b.substring(2), 16));
+                        }
+                        sequences.put(ch, sb.toString());
+                    }
+                }
+            }
+        }
+        List<Character> characters = new ArrayList<>(sequences.keySet());
+        Random random = new Random(1L);
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            char ch = random.nextBoolean() ? (char) (0x20 + random.nextInt(0x5f)) : characters.get(random.nextInt(characters.size()));
+            input.append(ch);
+            expected.append(ch < 0x80 ? String.valueOf(ch) : sequences.get(ch));
+        }
+        assertEquals(expected.toString(), new String(input.toString().getBytes(charset), StandardCharsets.ISO_8859_1));
+        // a direct output buffer, and one character at a time
+        ByteBuffer out = ByteBuffer.allocateDirect(expected.length());
+        CharBuffer in = CharBuffer.wrap(input);
+        encoder.reset();
+        for (int i = 1; i <= input.length(); i++) {
+            assertTrue(encoder.encode(in.limit(i), out, i == input.length()).isUnderflow());
+        }
+        assertTrue(encoder.flush(out).isUnderflow());
+        byte[] bytes = new byte[out.flip().remaining()];
+        out.get(bytes);
+        assertEquals(expected.toString(), new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testUnmappableMark() {
+        Charset charset = Charset.forName("SIMPLE_ANSEL");
+        // U+0316 has no byte sequence, the caron after it still goes with the z, not with the o
+        String z = new String("\u1E91\u030C".getBytes(charset), StandardCharsets.ISO_8859_1);
+        String o = new String("\u1E51".getBytes(charset), StandardCharsets.ISO_8859_1);
+        assertEquals("?" + z + o, new String("\u1E91\u0316\u030C\u1E51".getBytes(charset),
+                StandardCharsets.ISO_8859_1));
+        CharsetEncoder encoder = charset.newEncoder();
+        CharBuffer in = CharBuffer.wrap("\u1E91\u0316\u030C");
+        CoderResult result = encoder.encode(in, ByteBuffer.allocate(16), true);
+        assertTrue(result.isUnmappable());
+        assertEquals(1, result.length());
+        assertEquals(1, in.position());
+    }
 }
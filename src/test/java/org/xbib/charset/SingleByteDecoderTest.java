@@ -0,0 +1,157 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.text.Normalizer;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Compares the table driven decoders with composition by {@link Normalizer}.
+ */
+public class SingleByteDecoderTest {
+
+    @Test
+    public void testISO5426() throws Exception {
+        assertClusters(Charset.forName("ISO-5426"), b -> b > 0xC0 && b < 0xDF);
+    }
+
+    @Test
+    public void testPicaCharset() throws Exception {
+        assertClusters(Charset.forName("x-PICA"), b -> b >= 0xE0 && b <= 0xFE);
+    }
+
+    @Test
+    public void testSplitInput() throws Exception {
+        Charset charset = Charset.forName("ISO-5426");
+        byte[] bytes = {'M', (byte) 0xC9, 'u', 'n', (byte) 0xC2, (byte) 0xC3, 'e', 'n', (byte) 0xC5, (byte) 0xC2, 'a'};
+        String expected = new String(bytes, charset);
+        assertEquals("M\u00fcn\u1ebfn\u00e1\u0304", expected);
+        CharsetDecoder decoder = charset.newDecoder();
+        CharBuffer out = CharBuffer.allocate(32);
+        ByteBuffer in = ByteBuffer.allocate(1);
+        for (byte b : bytes) {
+            in.clear();
+            in.put(b).flip();
+            CoderResult result = decoder.decode(in, out, false);
+            assertEquals(CoderResult.UNDERFLOW, result);
+        }
+        in.clear().flip();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        assertEquals(expected, out.flip().toString());
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        CharsetDecoder decoder = Charset.forName("x-PICA").newDecoder();
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{'a', (byte) 0xE8, 'o', 'b'});
+        CharBuffer out = CharBuffer.allocate(1);
+        assertEquals(CoderResult.OVERFLOW, decoder.decode(in, out, true));
+        assertEquals(2, in.position());
+        out = CharBuffer.allocate(4);
+        assertEquals(CoderResult.UNDERFLOW, decoder.decode(in, out, true));
+        assertEquals("öb", out.flip().toString());
+    }
+
+    private static void assertClusters(Charset charset, IntPredicate isCombining) throws Exception {
+        int[] marks = java.util.stream.IntStream.range(0, 256).filter(isCombining).toArray();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StringBuilder expected = new StringBuilder();
+        char[] table = table(charset, isCombining);
+        for (int base = 0; base < 256; base++) {
+            if (isCombining.test(base)) {
+                continue;
+            }
+            cluster(table, new int[0], base, bytes, expected);
+            for (int m1 : marks) {
+                cluster(table, new int[]{m1}, base, bytes, expected);
+                for (int m2 : marks) {
+                    cluster(table, new int[]{m1, m2}, base, bytes, expected);
+                }
+            }
+        }
+        Random random = new Random(1L);
+        for (int i = 0; i < 100000; i++) {
+            int[] cluster = new int[2 + random.nextInt(5)];
+            for (int j = 0; j < cluster.length; j++) {
+                cluster[j] = marks[random.nextInt(marks.length)];
+            }
+            int base = random.nextInt(256);
+            if (!isCombining.test(base)) {
+                cluster(table, cluster, base, bytes, expected);
+            }
+        }
+        CharBuffer chars = charset.newDecoder().decode(ByteBuffer.wrap(bytes.toByteArray()));
+        String actual = chars.toString();
+        assertEquals(expected.length(), actual.length());
+        assertEquals(expected.toString(), actual);
+    }
+
+    private static void cluster(char[] table, int[] marks, int base, ByteArrayOutputStream bytes,
+                                StringBuilder expected) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(table[base] != 0 ? table[base] : '\uFFFD');
+        for (int i = marks.length - 1; i >= 0; i--) {
+            sb.append(table[marks[i]] != 0 ? table[marks[i]] : '\uFFFD');
+            bytes.write(marks[marks.length - 1 - i]);
+        }
+        bytes.write(base);
+        expected.append(Normalizer.normalize(sb, Normalizer.Form.NFC));
+    }
+
+    private static char[] table(Charset charset, IntPredicate isCombining) throws Exception {
+        char[] table = new char[256];
+        CharsetDecoder decoder = charset.newDecoder();
+        for (int b = 0; b < 256; b++) {
+            // a combining byte needs a base byte, a space does not compose
+            boolean combining = isCombining.test(b);
+            byte[] bytes = combining ? new byte[]{(byte) b, ' '} : new byte[]{(byte) b};
+            CharBuffer out = CharBuffer.allocate(4);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes), out, true);
+            decoder.flush(out);
+            out.flip();
+            char ch = out.charAt(combining ? 1 : 0);
+            table[b] = out.length() == bytes.length && ch != '\uFFFD' ? ch : 0;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Compares the table driven encoders with decomposition by {@link Normalizer}.
+ */
+public class SingleByteEncoderTest {
+
+    @Test
+    public void testISO5426() throws Exception {
+        assertEncoding(Charset.forName("ISO-5426"), b -> b > 0xC0 && b < 0xDF);
+    }
+
+    @Test
+    public void testPicaCharset() throws Exception {
+        assertEncoding(Charset.forName("x-PICA"), b -> b >= 0xE0 && b <= 0xFE);
+    }
+
+    @Test
+    public void testPrecomposed() throws Exception {
+        Charset charset = Charset.forName("ISO-5426");
+        assertArrayEquals(new byte[]{'M', (byte) 0xC9, 'u', 'n', (byte) 0xC2, (byte) 0xC3, 'e', 'n'},
+                "M\u00FCn\u1EBFn".getBytes(charset));
+    }
+
+    @Test
+    public void testSplitInput() throws Exception {
+        Charset charset = Charset.forName("ISO-5426");
+        String s = "M\u00FCn\u1EBFn\u00E1\u0304";
+        byte[] expected = s.getBytes(charset);
+        CharsetEncoder encoder = charset.newEncoder();
+        ByteBuffer out = ByteBuffer.allocate(32);
+        CharBuffer in = CharBuffer.allocate(1);
+        for (char c : s.toCharArray()) {
+            in.clear();
+            in.put(c).flip();
+            assertEquals(CoderResult.UNDERFLOW, encoder.encode(in, out, false));
+        }
+        in.clear().flip();
+        encoder.encode(in, out, true);
+        encoder.flush(out);
+        out.flip();
+        byte[] actual = new byte[out.remaining()];
+        out.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        CharsetEncoder encoder = Charset.forName("x-PICA").newEncoder();
+        CharBuffer in = CharBuffer.wrap("a\u00F6b");
+        ByteBuffer out = ByteBuffer.allocate(2);
+        assertEquals(CoderResult.OVERFLOW, encoder.encode(in, out, true));
+        assertEquals(2, in.position());
+        assertEquals(1, out.position());
+        out = ByteBuffer.allocate(4);
+        assertEquals(CoderResult.UNDERFLOW, encoder.encode(in, out, true));
+        assertEquals(CoderResult.UNDERFLOW, encoder.flush(out));
+        assertArrayEquals(new byte[]{(byte) 0xE8, 'o', 'b'}, java.util.Arrays.copyOf(out.array(), out.position()));
+    }
+
+    private static void assertEncoding(Charset charset, IntPredicate isCombining) throws Exception {
+        Map<Character, Byte> map = map(charset, isCombining);
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0; c < 0x3000; c++) {
+            // every character, with short clusters
+            sb.append(c).append(c % 4 == 0 ? " " : "");
+        }
+        sb.append("\uAC00\uD4DB\u1F82\uD834\uDD1E\u4E2D");
+        String all = sb.toString();
+        Random random = new Random(1L);
+        for (int i = 0; i < 100000; i++) {
+            char c = all.charAt(random.nextInt(all.length()));
+            sb.append(c);
+            if (random.nextInt(3) == 0) {
+                sb.append((char) (0x300 + random.nextInt(0x70)));
+            }
+        }
+        String s = sb.toString();
+        assertArrayEquals(reference(s, map), s.getBytes(charset));
+    }
+
+    /**
+     * The former encoder, with a lookup of every decomposed character.
+     */
+    private static byte[] reference(String s, Map<Character, Byte> map) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder cluster = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (cluster.length() > 0 && !(c >= '\u0300' && c <= '\u036F')) {
+                for (int i = cluster.length() - 1; i >= 0; i--) {
+                    Byte b = map.get(cluster.charAt(i));
+                    out.write(b != null ? b : '?');
+                }
+                cluster.setLength(0);
+            }
+            cluster.append(Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD));
+        }
+        for (int i = cluster.length() - 1; i >= 0; i--) {
+            Byte b = map.get(cluster.charAt(i));
+            out.write(b != null ? b : '?');
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<Character, Byte> map(Charset charset, IntPredicate isCombining) {
+        Map<Character, Byte> map = new HashMap<>();
+        SingleByteDecoder decoder = (SingleByteDecoder) charset.newDecoder();
+        decoder.setComposeCharactersAfterConversion(false);
+        for (int b = 0; b < 256; b++) {
+            // a combining byte needs a base byte
+            boolean combining = isCombining.test(b);
+            byte[] bytes = combining ? new byte[]{(byte) b, ' '} : new byte[]{(byte) b};
+            CharBuffer out = CharBuffer.allocate(4);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes), out, true);
+            decoder.flush(out);
+            out.flip();
+            char ch = out.charAt(combining ? 1 : 0);
+            if (out.length() == bytes.length && ch != 0 && ch != '\uFFFD') {
+                map.put(ch, (byte) b);
+            }
+        }
+        return map;
+    }
+}
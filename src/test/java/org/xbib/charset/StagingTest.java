@@ -0,0 +1,200 @@
+/*
+ * Licensed to Jörg Prante and xbib under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with this work
+ * for additional information regarding copyright ownership.
+ *
+ * Copyright (C) 2016 Jörg Prante and xbib
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * The interactive user interfaces in modified source and object code
+ * versions of this program must display Appropriate Legal Notices,
+ * as required under Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public
+ * License, these Appropriate Legal Notices must retain the display of the
+ * "Powered by xbib" logo. If the display of the logo is not reasonably
+ * feasible for technical reasons, the Appropriate Legal Notices must display
+ * the words "Powered by xbib".
+ */
+package org.xbib.charset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares decoding and encoding with heap buffers, where the coders work on the arrays,
+ * with direct and read-only buffers, which are staged through heap buffers.
+ */
+public class StagingTest {
+
+    private static final String[] CHARSETS = {
+            "ANSEL", "SIMPLE_ANSEL", "ISO-5426", "ISO-5428", "PICA", "x-PICA", "MAB-Diskette"
+    };
+
+    @Test
+    public void testDecode() throws CharacterCodingException {
+        Random random = new Random(17L);
+        for (String name : CHARSETS) {
+            Charset charset = Charset.forName(name);
+            byte[] bytes = bytes(random, 10000);
+            String expected = newDecoder(charset).decode(ByteBuffer.wrap(bytes)).toString();
+            assertEquals(expected, newDecoder(charset).decode(ByteBuffer.wrap(bytes).asReadOnlyBuffer()).toString(), name);
+            for (int chunk : new int[] {1, 7, 100, 5000}) {
+                for (int capacity : new int[] {3, 64, 8192}) {
+                    assertEquals(expected, decode(charset, bytes, chunk, capacity, false), name);
+                    assertEquals(expected, decode(charset, bytes, chunk, capacity, true), name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTonos() throws CharacterCodingException {
+        // the tonos goes with the next letter only
+        assertEquals("\u03ac \u03b1\u03b5", new String(new byte[] { (byte) 0xa2, (byte) 0xe1, ' ', (byte) 0xe1, (byte) 0xe6 },
+                BibliographicCharsets.ISO5428));
+        assertEquals("a\u03b1", new String(new byte[] { (byte) 0xa2, 'a', (byte) 0xe1 }, BibliographicCharsets.ISO5428));
+        // the tonos is the last byte of the first staged call, the alpha the first of the second
+        byte[] bytes = new byte[5000];
+        Arrays.fill(bytes, (byte) 'a');
+        bytes[4095] = (byte) 0xa2;
+        bytes[4096] = (byte) 0xe1;
+        Charset charset = BibliographicCharsets.ISO5428;
+        String expected = newDecoder(charset).decode(ByteBuffer.wrap(bytes)).toString();
+        // the tonos writes nothing, it goes with the alpha
+        assertEquals(4999, expected.length());
+        assertEquals('\u03ac', expected.charAt(4095));
+        assertEquals(expected, newDecoder(charset).decode(ByteBuffer.wrap(bytes).asReadOnlyBuffer()).toString());
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        assertEquals(expected, newDecoder(charset).decode(direct).toString());
+    }
+
+    @Test
+    public void testEncode() throws CharacterCodingException {
+        Random random = new Random(23L);
+        for (String name : CHARSETS) {
+            Charset charset = Charset.forName(name);
+            if (charset.newEncoder() == null) {
+                // ISO-5428
+                continue;
+            }
+            String s = newDecoder(charset).decode(ByteBuffer.wrap(bytes(random, 10000))).toString();
+            ByteBuffer expected = newEncoder(charset).encode(CharBuffer.wrap(s));
+            assertEquals(expected, newEncoder(charset).encode(CharBuffer.wrap(s).asReadOnlyBuffer()), name);
+            for (int chunk : new int[] {1, 7, 100, 4000}) {
+                for (int capacity : new int[] {9, 64, 8192}) {
+                    assertEquals(encode(charset, s, chunk, capacity, false),
+                            encode(charset, s, chunk, capacity, true), name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mostly 7-bit bytes, as in catalog data.
+     */
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (random.nextInt(10) == 0 ? 0x80 + random.nextInt(0x80) : 0x20 + random.nextInt(0x5f));
+        }
+        return bytes;
+    }
+
+    private static CharsetDecoder newDecoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static CharsetEncoder newEncoder(Charset charset) {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static String decode(Charset charset, byte[] bytes, int chunk, int capacity, boolean direct) {
+        CharsetDecoder decoder = newDecoder(charset);
+        ByteBuffer in = direct ? ByteBuffer.allocateDirect(chunk + 8) : ByteBuffer.allocate(chunk + 8);
+        CharBuffer out = direct ? ByteBuffer.allocateDirect(2 * capacity).asCharBuffer() : CharBuffer.allocate(capacity);
+        StringBuilder sb = new StringBuilder();
+        int offset = 0;
+        in.flip();
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            in.compact();
+            int length = Math.min(chunk, Math.min(bytes.length - offset, in.remaining()));
+            in.put(bytes, offset, length);
+            offset += length;
+            in.flip();
+            endOfInput = offset == bytes.length;
+            CoderResult result;
+            do {
+                result = decoder.decode(in, out, endOfInput);
+                sb.append(out.flip());
+                out.clear();
+            } while (result.isOverflow());
+        }
+        CoderResult result;
+        do {
+            result = decoder.flush(out);
+            sb.append(out.flip());
+            out.clear();
+        } while (result.isOverflow());
+        return sb.toString();
+    }
+
+    private static ByteBuffer encode(Charset charset, String s, int chunk, int capacity, boolean direct) {
+        CharsetEncoder encoder = newEncoder(charset);
+        CharBuffer in = direct ? ByteBuffer.allocateDirect(2 * (chunk + 8)).asCharBuffer() : CharBuffer.allocate(chunk + 8);
+        ByteBuffer out = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        ByteBuffer bytes = ByteBuffer.allocate(s.length() * 4 + 16);
+        int offset = 0;
+        in.flip();
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            in.compact();
+            int length = Math.min(chunk, Math.min(s.length() - offset, in.remaining()));
+            in.put(s, offset, offset + length);
+            offset += length;
+            in.flip();
+            endOfInput = offset == s.length();
+            CoderResult result;
+            do {
+                result = encoder.encode(in, out, endOfInput);
+                bytes.put(out.flip());
+                out.clear();
+            } while (result.isOverflow());
+        }
+        CoderResult result;
+        do {
+            result = encoder.flush(out);
+            bytes.put(out.flip());
+            out.clear();
+        } while (result.isOverflow());
+        return bytes.flip();
+    }
+}